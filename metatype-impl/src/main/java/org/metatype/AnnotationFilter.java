@@ -0,0 +1,153 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.util.Arrays;
+
+/**
+ * Limits resolution to the annotation types a caller cares about.
+ *
+ * With an interest set only those types are kept in the resolved sets,
+ * and an annotation type is only unrolled if it can eventually reach one
+ * of them.  Annotation types in excluded packages are neither kept nor
+ * unrolled, as if they were not there.
+ *
+ * <pre>
+ * private static final AnnotationFilter EJB = AnnotationFilter.interestedIn(Stateless.class, Singleton.class, Schedule.class)
+ *         .excluding("com.acme.internal");
+ *
+ * final MetaAnnotationSet annotations = EJB.resolve(method);
+ * </pre>
+ *
+ * Which types are kept and unrolled is worked out once per annotation
+ * type and filter, so keep filters in static finals.  Elements resolved
+ * with the same filter and declaring the same annotations share a set.
+ *
+ * @author David Blevins
+ */
+public final class AnnotationFilter {
+
+    public static final AnnotationFilter ALL = new AnnotationFilter(null, new String[0]);
+
+    private static final int KEEP = 1;
+    private static final int EXPAND = 2;
+
+    // null for every type
+    private final AnnotationSet interest;
+
+    // package names, each ending in '.'
+    private final String[] excluded;
+
+    private final ClassValue<Integer> decisions = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return decide(type.asSubclass(Annotation.class));
+        }
+    };
+
+    private AnnotationFilter(AnnotationSet interest, String[] excluded) {
+        this.interest = interest;
+        this.excluded = excluded;
+    }
+
+    public static AnnotationFilter interestedIn(Class<? extends Annotation>... types) {
+        return interestedIn(AnnotationSet.of(types));
+    }
+
+    public static AnnotationFilter interestedIn(AnnotationSet types) {
+        if (types == null) throw new NullPointerException("types");
+        return new AnnotationFilter(types, ALL.excluded);
+    }
+
+    /**
+     * A filter that also ignores annotation types in the packages, or any
+     * package beneath them
+     */
+    public AnnotationFilter excluding(String... packages) {
+        final String[] excluded = Arrays.copyOf(this.excluded, this.excluded.length + packages.length);
+
+        for (int i = 0; i < packages.length; i++) {
+            final String name = packages[i];
+            excluded[this.excluded.length + i] = name.endsWith(".") ? name : name + ".";
+        }
+
+        return new AnnotationFilter(interest, excluded);
+    }
+
+    /**
+     * The types kept, or null if all types are
+     */
+    public AnnotationSet getInterest() {
+        return interest;
+    }
+
+    /**
+     * The annotations of the element that pass this filter, resolved
+     * with the usual depth and conflict rules
+     */
+    public MetaAnnotationSet resolve(AnnotatedElement element) {
+        if (this == ALL) return MetatypeResolver.getDefault().getMetaAnnotationSet(element);
+        return MetaAnnotationSet.resolve(element.getDeclaredAnnotations(), this, ConflictPolicy.KEEP);
+    }
+
+    public boolean isExcluded(Class<? extends Annotation> type) {
+        if (excluded.length == 0) return false;
+
+        final String name = type.getName();
+
+        for (String prefix : excluded) {
+            if (name.startsWith(prefix)) return true;
+        }
+
+        return false;
+    }
+
+    boolean keeps(Class<? extends Annotation> type) {
+        return this == ALL || (decisions.get(type) & KEEP) != 0;
+    }
+
+    boolean expands(Class<? extends Annotation> type) {
+        return this == ALL || (decisions.get(type) & EXPAND) != 0;
+    }
+
+    boolean skips(Class<? extends Annotation> type) {
+        return this != ALL && decisions.get(type) == 0;
+    }
+
+    private int decide(Class<? extends Annotation> type) {
+        if (isExcluded(type)) return 0;
+
+        if (interest == null) return KEEP | EXPAND;
+
+        int decision = 0;
+
+        if (interest.contains(type)) decision |= KEEP;
+
+        if (MetaAnnotationClosure.of(type).getReachable().containsAny(interest)) decision |= EXPAND;
+
+        return decision;
+    }
+
+    @Override
+    public String toString() {
+        return "AnnotationFilter{" +
+                "interest=" + ((interest == null) ? "*" : interest) +
+                ", excluded=" + Arrays.toString(excluded) +
+                '}';
+    }
+}
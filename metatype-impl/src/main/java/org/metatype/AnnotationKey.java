@@ -0,0 +1,63 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * A typed handle on an annotation type for repeated lookups.  Obtain one
+ * through {@link Metatypes#key(Class)} and keep it in a static final:
+ *
+ * <pre>
+ * private static final AnnotationKey&lt;Daily&gt; DAILY = Metatypes.key(Daily.class);
+ *
+ * final Daily daily = method.getAnnotation(DAILY);
+ * </pre>
+ *
+ * The key resolves straight to the slot of its type in a set, with no
+ * hashing, no allocation and no unchecked cast at the call site.
+ *
+ * @author David Blevins
+ */
+public final class AnnotationKey<T extends Annotation> {
+
+    private final Class<T> type;
+    private final int id;
+
+    AnnotationKey(Class<T> type) {
+        if (type == null) throw new NullPointerException("type");
+
+        this.type = type;
+        this.id = AnnotationTypeRegistry.id(type);
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    int slot(MetaAnnotationSet set) {
+        return set.slot(id);
+    }
+
+    @Override
+    public String toString() {
+        return "AnnotationKey{" + type.getName() + "}";
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable set of annotation types, kept as bits over the ids of the
+ * types so that membership, "all of" and "any of" checks and intersections
+ * are word operations.
+ *
+ * Only the span of words between the lowest and highest id present is
+ * stored, so a set of a few related types stays small however many
+ * annotation types have been seen.  Where the ids are far apart, as they
+ * are once redeployed applications have taken new ones, only the words
+ * holding bits are stored, along with their positions.
+ *
+ * Build the sets used in hot checks once and keep them:
+ *
+ * <pre>
+ * private static final AnnotationSet TX = AnnotationSet.of(TxRequired.class, TxRequiresNew.class);
+ *
+ * if (method.hasAny(TX)) ...
+ * </pre>
+ *
+ * @author David Blevins
+ */
+public final class AnnotationSet {
+
+    private static final long[] NO_WORDS = new long[0];
+
+    /**
+     * A span more than this many times the words holding bits is stored
+     * sparse
+     */
+    private static final int SPARSE = 2;
+
+    public static final AnnotationSet EMPTY = new AnnotationSet(new Class[0]);
+
+    private final Class<? extends Annotation>[] types;
+
+    // word index of words[0], when dense
+    private final int offset;
+    private final long[] words;
+
+    // word index of each of the words, ascending, when sparse
+    private final int[] positions;
+
+    // the number of bits set in the words before each word
+    private final int[] ranks;
+
+    private AnnotationSet(Class<? extends Annotation>[] types) {
+        this.types = types;
+
+        if (types.length == 0) {
+            this.offset = 0;
+            this.words = NO_WORDS;
+            this.positions = null;
+            this.ranks = new int[0];
+            return;
+        }
+
+        final int[] ids = new int[types.length];
+
+        for (int i = 0; i < types.length; i++) {
+            ids[i] = AnnotationTypeRegistry.id(types[i]);
+        }
+
+        Arrays.sort(ids);
+
+        int used = 1;
+        for (int i = 1; i < ids.length; i++) {
+            if ((ids[i] >>> 6) != (ids[i - 1] >>> 6)) used++;
+        }
+
+        final int min = ids[0] >>> 6;
+        final int max = ids[ids.length - 1] >>> 6;
+
+        if (max - min + 1 <= SPARSE * used) {
+            this.offset = min;
+            this.words = new long[max - min + 1];
+            this.positions = null;
+
+            for (int id : ids) {
+                words[(id >>> 6) - offset] |= 1L << id;
+            }
+        } else {
+            this.offset = 0;
+            this.words = new long[used];
+            this.positions = new int[used];
+
+            int index = -1;
+            for (int id : ids) {
+                if (index < 0 || positions[index] != (id >>> 6)) positions[++index] = id >>> 6;
+                words[index] |= 1L << id;
+            }
+        }
+
+        this.ranks = new int[words.length];
+
+        for (int i = 1; i < words.length; i++) {
+            ranks[i] = ranks[i - 1] + Long.bitCount(words[i - 1]);
+        }
+    }
+
+    public static AnnotationSet of(Class<? extends Annotation>... types) {
+        return of(Arrays.asList(types));
+    }
+
+    public static AnnotationSet of(Collection<? extends Class<? extends Annotation>> types) {
+        if (types.isEmpty()) return EMPTY;
+
+        // drop any duplicates
+        final List<Class<? extends Annotation>> list = new ArrayList<Class<? extends Annotation>>(types.size());
+        for (Class<? extends Annotation> type : types) {
+            if (type == null) throw new NullPointerException("type");
+            if (!list.contains(type)) list.add(type);
+        }
+
+        return new AnnotationSet(list.toArray(new Class[list.size()]));
+    }
+
+    /**
+     * For types already known to hold no duplicates
+     */
+    static AnnotationSet distinct(Class<? extends Annotation>[] types) {
+        if (types.length == 0) return EMPTY;
+        return new AnnotationSet(types);
+    }
+
+    public int size() {
+        return types.length;
+    }
+
+    public boolean isEmpty() {
+        return types.length == 0;
+    }
+
+    public boolean contains(Class<? extends Annotation> type) {
+        return contains(AnnotationTypeRegistry.id(type));
+    }
+
+    boolean contains(int id) {
+        final int index = index(id >>> 6);
+        return index >= 0 && (words[index] & (1L << id)) != 0;
+    }
+
+    /**
+     * The position of the id among the ids in this set, in id order, or -1
+     * if it is not in the set
+     */
+    int rank(int id) {
+        final int index = index(id >>> 6);
+
+        if (index < 0) return -1;
+
+        final long word = words[index];
+        final long bit = 1L << id;
+
+        if ((word & bit) == 0) return -1;
+
+        return ranks[index] + Long.bitCount(word & (bit - 1));
+    }
+
+    /**
+     * True if every type in the other set is also in this one
+     */
+    public boolean containsAll(AnnotationSet other) {
+        for (int i = 0; i < other.words.length; i++) {
+            final long word = other.words[i];
+            if (word == 0) continue;
+
+            final int index = index(other.position(i));
+            if (index < 0) return false;
+            if ((words[index] & word) != word) return false;
+        }
+        return true;
+    }
+
+    /**
+     * True if at least one type in the other set is also in this one
+     */
+    public boolean containsAny(AnnotationSet other) {
+        if (positions == null && other.positions == null) {
+            final int from = Math.max(offset, other.offset);
+            final int to = Math.min(offset + words.length, other.offset + other.words.length);
+
+            for (int i = from; i < to; i++) {
+                if ((words[i - offset] & other.words[i - other.offset]) != 0) return true;
+            }
+            return false;
+        }
+
+        for (int i = 0; i < other.words.length; i++) {
+            final int index = index(other.position(i));
+            if (index >= 0 && (words[index] & other.words[i]) != 0) return true;
+        }
+        return false;
+    }
+
+    public AnnotationSet intersect(AnnotationSet other) {
+        if (other.containsAll(this)) return this;
+
+        final List<Class<? extends Annotation>> list = new ArrayList<Class<? extends Annotation>>();
+        for (Class<? extends Annotation> type : types) {
+            if (other.contains(type)) list.add(type);
+        }
+        return of(list);
+    }
+
+    public AnnotationSet union(AnnotationSet other) {
+        if (containsAll(other)) return this;
+
+        final List<Class<? extends Annotation>> list = new ArrayList<Class<? extends Annotation>>(asList());
+        list.addAll(other.asList());
+        return of(list);
+    }
+
+    public List<Class<? extends Annotation>> asList() {
+        return Collections.unmodifiableList(Arrays.asList(types));
+    }
+
+    /**
+     * The index into the words of the word at the position, or -1
+     */
+    private int index(int position) {
+        if (positions != null) {
+            final int index = Arrays.binarySearch(positions, position);
+            return (index < 0) ? -1 : index;
+        }
+
+        final int index = position - offset;
+        return (index >= 0 && index < words.length) ? index : -1;
+    }
+
+    private int position(int index) {
+        return (positions == null) ? offset + index : positions[index];
+    }
+
+    /**
+     * The number of words stored, for tests
+     */
+    int wordCount() {
+        return words.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AnnotationSet)) return false;
+
+        final AnnotationSet that = (AnnotationSet) o;
+        return types.length == that.types.length && containsAll(that);
+    }
+
+    @Override
+    public int hashCode() {
+        // the span of words is trimmed at both ends, and whether it is sparse
+        // depends only on the ids, so equal sets have equal words
+        return 31 * ((positions == null) ? offset : Arrays.hashCode(positions)) + Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        return asList().toString();
+    }
+}
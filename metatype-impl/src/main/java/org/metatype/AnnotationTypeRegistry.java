@@ -0,0 +1,47 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out dense int ids to annotation types, in the order they are
+ * first seen, so sets of types can be kept as bits.
+ *
+ * The id is stored against the class itself, the registry holds no
+ * reference to any annotation type.
+ *
+ * @author David Blevins
+ */
+final class AnnotationTypeRegistry {
+
+    private static final AtomicInteger NEXT = new AtomicInteger();
+
+    private static final ClassValue<Integer> IDS = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return NEXT.getAndIncrement();
+        }
+    };
+
+    private AnnotationTypeRegistry() {
+        // no-op
+    }
+
+    public static int id(Class<?> type) {
+        return IDS.get(type);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How long resolved elements and member tables are kept.
+ *
+ * <ul>
+ * <li>{@link #unbounded()} keeps everything for as long as its class is loaded</li>
+ * <li>{@link #bounded(int)} keeps at most that many, admitting a newcomer only
+ * if it is asked for more often than the oldest resident it would replace, so
+ * elements used on every request stay while one-off scans pass through</li>
+ * <li>{@link #soft()} keeps everything until the garbage collector needs the memory</li>
+ * </ul>
+ *
+ * A policy instance is one budget with one set of counters, shared by all
+ * the caches that use it.  Whatever the policy, the caches never keep a
+ * classloader alive.
+ *
+ * The policy of the default caches is read once from the
+ * {@code org.metatype.cache} system property: {@code unbounded} (the
+ * default), {@code soft} or {@code bounded:<size>}.
+ *
+ * @author David Blevins
+ */
+public abstract class CachePolicy {
+
+    static final CachePolicy DEFAULT = parse(System.getProperty("org.metatype.cache", "unbounded"));
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    CachePolicy() {
+        // no-op
+    }
+
+    public static CachePolicy unbounded() {
+        return new Unbounded();
+    }
+
+    public static CachePolicy soft() {
+        return new Soft();
+    }
+
+    public static CachePolicy bounded(int maximumSize) {
+        if (maximumSize <= 0) throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        return new Bounded(maximumSize);
+    }
+
+    static CachePolicy parse(String policy) {
+        if ("unbounded".equals(policy)) return unbounded();
+        if ("soft".equals(policy)) return soft();
+        if (policy.startsWith("bounded:")) return bounded(Integer.parseInt(policy.substring("bounded:".length())));
+
+        throw new IllegalArgumentException("Unknown cache policy: " + policy);
+    }
+
+    public CacheStats getStats() {
+        return new CacheStats(hits.get(), misses.get(), evictions.get());
+    }
+
+    /**
+     * The cached value, or null if there is none
+     */
+    final <V> V get(CacheSlot<V> slot) {
+        final V value = read(slot);
+        (value == null ? misses : hits).incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Caches the value unless the slot already holds one.  Returns the value
+     * callers should use: the one already cached, else the one passed in,
+     * whether or not it was admitted.
+     */
+    abstract <V> V put(CacheSlot<V> slot, V value);
+
+    abstract <V> V read(CacheSlot<V> slot);
+
+    void evicted() {
+        evictions.incrementAndGet();
+    }
+
+    private static final class Unbounded extends CachePolicy {
+
+        @Override
+        <V> V read(CacheSlot<V> slot) {
+            return (V) slot.value;
+        }
+
+        @Override
+        <V> V put(CacheSlot<V> slot, V value) {
+            if (slot.compareAndSet(null, value)) return value;
+            return (V) slot.value;
+        }
+
+        @Override
+        public String toString() {
+            return "unbounded";
+        }
+    }
+
+    private static final class Soft extends CachePolicy {
+
+        @Override
+        <V> V read(CacheSlot<V> slot) {
+            final Reference<V> reference = (Reference<V>) slot.value;
+
+            if (reference == null) return null;
+
+            final V value = reference.get();
+
+            if (value == null && slot.compareAndSet(reference, null)) {
+                evicted();
+                slot.released();
+            }
+
+            return value;
+        }
+
+        @Override
+        <V> V put(CacheSlot<V> slot, V value) {
+            final Reference<V> created = new SoftReference<V>(value);
+
+            while (true) {
+                final Reference<V> reference = (Reference<V>) slot.value;
+
+                if (reference != null) {
+                    final V existing = reference.get();
+                    if (existing != null) return existing;
+                }
+
+                if (slot.compareAndSet(reference, created)) return value;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "soft";
+        }
+    }
+
+    /**
+     * A fixed size, first in first out, with TinyLFU admission: a newcomer
+     * only gets in by evicting the oldest resident, and only if the
+     * newcomer has been asked for more often.  A resident that survives
+     * the comparison goes to the back of the line.
+     *
+     * Reads are lock free, they only bump the frequency counts.  The
+     * residents are referenced weakly so that an unloaded class still
+     * leaves, counted against the size until it reaches the front.
+     */
+    private static final class Bounded extends CachePolicy {
+
+        private final int maximumSize;
+        private final Sketch sketch;
+        private final ArrayDeque<WeakReference<CacheSlot<?>>> residents = new ArrayDeque<WeakReference<CacheSlot<?>>>();
+
+        private Bounded(int maximumSize) {
+            this.maximumSize = maximumSize;
+            this.sketch = new Sketch(maximumSize);
+        }
+
+        @Override
+        <V> V read(CacheSlot<V> slot) {
+            sketch.increment(slot.hash);
+            return (V) slot.value;
+        }
+
+        @Override
+        synchronized <V> V put(CacheSlot<V> slot, V value) {
+            final Object existing = slot.value;
+            if (existing != null) return (V) existing;
+
+            while (residents.size() >= maximumSize) {
+                final CacheSlot<?> victim = residents.peekFirst().get();
+
+                if (victim == null || victim.value == null) {
+                    // unloaded, or dropped with its classloader
+                    residents.pollFirst();
+                    continue;
+                }
+
+                if (sketch.frequency(slot.hash) <= sketch.frequency(victim.hash)) {
+                    // not admitted, the resident gets another round
+                    residents.addLast(residents.pollFirst());
+                    evicted();
+                    slot.released();
+                    return value;
+                }
+
+                residents.pollFirst();
+                victim.value = null;
+                evicted();
+                victim.released();
+            }
+
+            residents.addLast(new WeakReference<CacheSlot<?>>(slot));
+            slot.value = value;
+
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return "bounded:" + maximumSize;
+        }
+    }
+
+    /**
+     * Approximate access counts, four small counters per key that are all
+     * halved periodically so that old popularity fades.  Races between
+     * readers lose the odd increment, which is fine for an estimate.
+     */
+    private static final class Sketch {
+
+        private static final int[] SEEDS = {0x97CB3127, 0xB492B66F, 0x9AE16A3B, 0xCBF29CE5};
+        private static final int MAX = 15;
+
+        private final int[] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        // four counters per resident, up to a point
+        private static final int MAX_SIZE = 1 << 20;
+
+        private Sketch(int maximumSize) {
+            int size = 64;
+            while (size < MAX_SIZE && size / 4 < maximumSize) size <<= 1;
+
+            this.counters = new int[size];
+            this.mask = size - 1;
+            this.sampleSize = 10 * Math.min(maximumSize, MAX_SIZE);
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+
+            for (int seed : SEEDS) {
+                final int index = index(hash, seed);
+                if (counters[index] < MAX) {
+                    counters[index]++;
+                    added = true;
+                }
+            }
+
+            if (added && ++additions >= sampleSize) reset();
+        }
+
+        int frequency(int hash) {
+            int frequency = MAX;
+            for (int seed : SEEDS) {
+                frequency = Math.min(frequency, counters[index(hash, seed)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int seed) {
+            int h = hash * seed;
+            h ^= h >>> 17;
+            return h & mask;
+        }
+
+        private void reset() {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] >>>= 1;
+            }
+            additions >>>= 1;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Where a cache keeps the value for one key.  The slot itself is hung off
+ * the key, a ClassValue or a map belonging to the declaring class, so it
+ * goes away with the key's classloader; what the slot holds, and for how
+ * long, is up to the {@link CachePolicy}.
+ *
+ * A slot kept in a map can be taken out of it once the policy leaves it
+ * empty, by overriding {@link #released()}.  Its hash must then come from
+ * the key, so that the key's frequency counts outlive the slot.
+ *
+ * @author David Blevins
+ */
+class CacheSlot<V> {
+
+    private static final AtomicReferenceFieldUpdater<CacheSlot, Object> VALUE = AtomicReferenceFieldUpdater.newUpdater(CacheSlot.class, Object.class, "value");
+
+    // the value, or whatever the policy wraps it in
+    volatile Object value;
+
+    // spread hash, for the policy's frequency counts
+    final int hash;
+
+    CacheSlot() {
+        this.hash = spread(System.identityHashCode(this));
+    }
+
+    CacheSlot(Object key) {
+        this.hash = spread(key.hashCode());
+    }
+
+    private static int spread(int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    boolean compareAndSet(Object expect, Object update) {
+        return VALUE.compareAndSet(this, expect, update);
+    }
+
+    /**
+     * Called by the policy when it evicts the value, or declines or loses
+     * one, leaving the slot empty
+     */
+    void released() {
+        // no-op
+    }
+}
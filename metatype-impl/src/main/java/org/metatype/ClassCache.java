@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A ClassValue whose entries can also be dropped a classloader at a time.
+ *
+ * Like any ClassValue the values hang off the classes themselves, so they
+ * are collected with the classloader that defined them and never keep it
+ * alive.  What this adds is a note of which classes of each loader have
+ * something cached, held weakly on both sides, so that everything cached
+ * for a loader can be evicted the moment it is undeployed rather than
+ * whenever it is collected.
+ *
+ * Every cache is known here, weakly, until it is disposed or collected,
+ * so that a resolver's caches never keep the resolver, or the classes
+ * its filter names, alive.  A value cached on a class that outlives the
+ * cache, such as Object, would though, so each cache also notes the
+ * classes it computed a value for and removes them all when disposed.
+ *
+ * @author David Blevins
+ */
+abstract class ClassCache<T> extends ClassValue<T> {
+
+    private static final List<WeakReference<ClassCache<?>>> CACHES = new CopyOnWriteArrayList<WeakReference<ClassCache<?>>>();
+
+    // weak keys, and weak sets of classes, so no loader is reachable from here
+    private static final Map<ClassLoader, Set<Class<?>>> CACHED = new WeakHashMap<ClassLoader, Set<Class<?>>>();
+
+    // the classes this cache has a value on, weakly
+    private final Set<Class<?>> computed = Collections.newSetFromMap(new WeakHashMap<Class<?>, Boolean>());
+
+    ClassCache() {
+        expunge();
+        CACHES.add(new WeakReference<ClassCache<?>>(this));
+    }
+
+    @Override
+    protected final T computeValue(Class<?> type) {
+        cached(type);
+
+        synchronized (computed) {
+            computed.add(type);
+        }
+
+        return compute(type);
+    }
+
+    protected abstract T compute(Class<?> type);
+
+    /**
+     * Drops every value this cache computed, on whichever class
+     */
+    void dispose() {
+        for (WeakReference<ClassCache<?>> reference : CACHES) {
+            if (reference.get() == this) CACHES.remove(reference);
+        }
+
+        final Class<?>[] classes;
+
+        synchronized (computed) {
+            classes = computed.toArray(new Class<?>[computed.size()]);
+            computed.clear();
+        }
+
+        for (Class<?> type : classes) {
+            if (type != null) remove(type);
+        }
+    }
+
+    /**
+     * Forgets the caches that have been collected
+     */
+    private static void expunge() {
+        final List<WeakReference<ClassCache<?>>> collected = new ArrayList<WeakReference<ClassCache<?>>>();
+
+        for (WeakReference<ClassCache<?>> reference : CACHES) {
+            if (reference.get() == null) collected.add(reference);
+        }
+
+        if (!collected.isEmpty()) CACHES.removeAll(collected);
+    }
+
+    private static void cached(Class<?> type) {
+        final ClassLoader loader = type.getClassLoader();
+
+        // the bootstrap loader never goes away
+        if (loader == null) return;
+
+        synchronized (CACHED) {
+            Set<Class<?>> classes = CACHED.get(loader);
+
+            if (classes == null) {
+                classes = Collections.newSetFromMap(new WeakHashMap<Class<?>, Boolean>());
+                CACHED.put(loader, classes);
+            }
+
+            classes.add(type);
+        }
+    }
+
+    /**
+     * Drops every cached value for classes defined by the loader
+     */
+    static void evict(ClassLoader loader) {
+        if (loader == null) return;
+
+        final Class<?>[] classes;
+
+        synchronized (CACHED) {
+            final Set<Class<?>> cached = CACHED.remove(loader);
+            if (cached == null) return;
+
+            classes = cached.toArray(new Class<?>[cached.size()]);
+        }
+
+        for (WeakReference<ClassCache<?>> reference : CACHES) {
+            final ClassCache<?> cache = reference.get();
+            if (cache == null) continue;
+
+            for (Class<?> type : classes) {
+                if (type != null) cache.remove(type);
+            }
+        }
+
+        expunge();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.annotation.Annotation;
+import java.util.Map;
+
+/**
+ * What a resolver does when the same annotation type is reached more
+ * than once at the same depth
+ *
+ * @author David Blevins
+ */
+public enum ConflictPolicy {
+
+    /**
+     * The first one found wins, the others are listed as its conflicts
+     */
+    KEEP {
+        @Override
+        void apply(Map<Class<? extends Annotation>, MetaAnnotation<?>> found) {
+            // as unrolled
+        }
+    },
+
+    /**
+     * The first one found wins, the others are dropped
+     */
+    FIRST {
+        @Override
+        void apply(Map<Class<? extends Annotation>, MetaAnnotation<?>> found) {
+            for (Map.Entry<Class<? extends Annotation>, MetaAnnotation<?>> entry : found.entrySet()) {
+                final MetaAnnotation<?> metaAnnotation = entry.getValue();
+
+                if (metaAnnotation.getConflicts().isEmpty()) continue;
+
+                entry.setValue(new MetaAnnotation(metaAnnotation.get(), metaAnnotation.getDepth()));
+            }
+        }
+    },
+
+    /**
+     * Resolution fails with an IllegalStateException
+     */
+    FAIL {
+        @Override
+        void apply(Map<Class<? extends Annotation>, MetaAnnotation<?>> found) {
+            for (MetaAnnotation<?> metaAnnotation : found.values()) {
+                if (metaAnnotation.getConflicts().isEmpty()) continue;
+
+                throw new IllegalStateException("Conflicting meta-annotations at depth " + metaAnnotation.getDepth() + ": " + metaAnnotation.get() + " and " + metaAnnotation.getConflicts().get(0).get());
+            }
+        }
+    };
+
+    abstract void apply(Map<Class<? extends Annotation>, MetaAnnotation<?>> found);
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.io.File;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.metatype.scan.MetatypeIndex;
+import org.metatype.scan.ScannedElement;
+
+/**
+ * What the build time indexes of a resolver say about the classes they
+ * cover, so that elements an index shows to have none of the resolver's
+ * types are never read or unrolled.
+ *
+ * An index covers the classes of the jar or directory it was found in.
+ * Only an index built for every type the resolver's filter keeps is
+ * used; an element it lists, and any class it does not cover or that has
+ * been recompiled since it was written, resolve as usual.
+ *
+ * @author David Blevins
+ */
+final class IndexedElements {
+
+    // for a class no index covers, compared by identity
+    private static final Set<String> UNINDEXED = Collections.unmodifiableSet(new HashSet<String>());
+
+    private final Map<File, MetatypeIndex> indexes;
+
+    // the indexed elements of each covered class, by key()
+    private final ClassValue<Set<String>> listed = new ClassValue<Set<String>>() {
+        @Override
+        protected Set<String> computeValue(Class<?> type) {
+            return listed(type);
+        }
+    };
+
+    private IndexedElements(Map<File, MetatypeIndex> indexes) {
+        this.indexes = indexes;
+    }
+
+    /**
+     * The indexes the filter can use, or null if there are none
+     */
+    static IndexedElements of(List<MetatypeIndex> indexes, AnnotationFilter filter) {
+        if (filter.getInterest() == null) return null;
+
+        final List<String> interest = new ArrayList<String>();
+
+        for (Class<? extends Annotation> type : filter.getInterest().asList()) {
+            interest.add(type.getName());
+        }
+
+        final Map<File, MetatypeIndex> usable = new HashMap<File, MetatypeIndex>();
+
+        for (MetatypeIndex index : indexes) {
+            if (index.getLocation() == null || !index.getInterest().containsAll(interest)) continue;
+            if (!usable.containsKey(index.getLocation())) usable.put(index.getLocation(), index);
+        }
+
+        return usable.isEmpty() ? null : new IndexedElements(usable);
+    }
+
+    /**
+     * True if an index covering the element's class does not list it
+     */
+    boolean isUnannotated(AnnotatedElement element) {
+        final Class<?> type;
+        final String key;
+
+        if (element instanceof Class) {
+            type = (Class<?>) element;
+            key = "";
+        } else if (element instanceof Method) {
+            final Method method = (Method) element;
+            type = method.getDeclaringClass();
+            key = method.getName() + descriptor(method.getParameterTypes(), method.getReturnType());
+        } else if (element instanceof Constructor) {
+            final Constructor<?> constructor = (Constructor<?>) element;
+            type = constructor.getDeclaringClass();
+            key = "<init>" + descriptor(constructor.getParameterTypes(), void.class);
+        } else if (element instanceof Field) {
+            final Field field = (Field) element;
+            type = field.getDeclaringClass();
+            key = field.getName();
+        } else {
+            return false;
+        }
+
+        final Set<String> listed = this.listed.get(type);
+
+        return listed != UNINDEXED && !listed.contains(key);
+    }
+
+    private Set<String> listed(Class<?> type) {
+        final MetatypeIndex index = indexes.get(location(type));
+
+        if (index == null || !index.isCurrent(type.getName())) return UNINDEXED;
+
+        final Set<String> keys = new HashSet<String>();
+
+        for (ScannedElement element : index.getElements(type.getName())) {
+            switch (element.getKind()) {
+                case CLASS:
+                    keys.add("");
+                    break;
+                case FIELD:
+                    keys.add(element.getMember().getName());
+                    break;
+                case METHOD:
+                case CONSTRUCTOR:
+                    keys.add(element.getMember().getName() + element.getMember().getDescriptor());
+                    break;
+                default:
+                    // an annotated parameter says nothing of its method
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * The jar or directory the class was loaded from, if on disk
+     */
+    private static File location(Class<?> type) {
+        final CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+
+        if (codeSource == null) return null;
+
+        final URL url = codeSource.getLocation();
+
+        if (url == null || !"file".equals(url.getProtocol())) return null;
+
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return new File(url.getPath());
+        } catch (IllegalArgumentException e) {
+            return new File(url.getPath());
+        }
+    }
+
+    private static String descriptor(Class<?>[] parameters, Class<?> returnType) {
+        final StringBuilder descriptor = new StringBuilder("(");
+
+        for (Class<?> parameter : parameters) {
+            descriptor(descriptor, parameter);
+        }
+
+        descriptor.append(')');
+        descriptor(descriptor, returnType);
+
+        return descriptor.toString();
+    }
+
+    private static void descriptor(StringBuilder descriptor, Class<?> type) {
+        if (type.isArray()) {
+            descriptor.append(type.getName().replace('.', '/'));
+        } else if (!type.isPrimitive()) {
+            descriptor.append('L').append(type.getName().replace('.', '/')).append(';');
+        } else if (type == int.class) {
+            descriptor.append('I');
+        } else if (type == long.class) {
+            descriptor.append('J');
+        } else if (type == boolean.class) {
+            descriptor.append('Z');
+        } else if (type == void.class) {
+            descriptor.append('V');
+        } else if (type == byte.class) {
+            descriptor.append('B');
+        } else if (type == char.class) {
+            descriptor.append('C');
+        } else if (type == short.class) {
+            descriptor.append('S');
+        } else if (type == float.class) {
+            descriptor.append('F');
+        } else {
+            descriptor.append('D');
+        }
+    }
+}
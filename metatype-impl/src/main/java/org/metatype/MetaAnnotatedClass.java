@@ -18,7 +18,6 @@ package org.metatype;
 import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
@@ -31,7 +30,19 @@ import java.security.ProtectionDomain;
 public class MetaAnnotatedClass<T> extends MetaAnnotatedObject<Class<T>> {
 
     public MetaAnnotatedClass(Class<T> clazz) {
-        super(clazz, unroll(clazz));
+        this(clazz, MetatypeResolver.getDefault());
+    }
+
+    MetaAnnotatedClass(Class<T> clazz, MetatypeResolver resolver) {
+        super(clazz, resolver);
+    }
+
+    /**
+     * The shared instance for the class, repeated calls are a cache hit
+     * and the returned wrappers can be compared by identity
+     */
+    public static <T> MetaAnnotatedClass<T> of(Class<T> clazz) {
+        return MetatypeResolver.getDefault().of(clazz);
     }
 
     public Annotation[] getDeclaredAnnotations() {
@@ -43,7 +54,11 @@ public class MetaAnnotatedClass<T> extends MetaAnnotatedObject<Class<T>> {
     }
 
     private MetaAnnotatedClass<?> to(Class<?> clazz) {
-        return new MetaAnnotatedClass(clazz);
+        return resolver.of(clazz);
+    }
+
+    private MetaAnnotatedMembers members() {
+        return resolver.members(target);
     }
 
     public MetaAnnotatedClass<?> forName(String name, boolean initialize, ClassLoader loader) throws ClassNotFoundException {
@@ -95,7 +110,7 @@ public class MetaAnnotatedClass<T> extends MetaAnnotatedObject<Class<T>> {
     }
 
     public MetaAnnotatedClass<? super T> getSuperclass() {
-        return new MetaAnnotatedClass(target.getSuperclass());
+        return resolver.of(target.getSuperclass());
     }
 
     public Type getGenericSuperclass() {
@@ -163,59 +178,59 @@ public class MetaAnnotatedClass<T> extends MetaAnnotatedObject<Class<T>> {
     }
 
     public MetaAnnotatedClass<?>[] getClasses() {
-        return to(target.getClasses());
+        return members().getClasses().clone();
     }
 
     public MetaAnnotatedField[] getFields() throws SecurityException {
-        return to(target.getFields());
+        return members().getFields().clone();
     }
 
     public MetaAnnotatedMethod[] getMethods() throws SecurityException {
-        return to(target.getMethods());
+        return members().getMethods().clone();
     }
 
     public MetaAnnotatedConstructor<?>[] getConstructors() throws SecurityException {
-        return to(target.getConstructors());
+        return members().getConstructors().clone();
     }
 
     public MetaAnnotatedField getField(String name) throws NoSuchFieldException, SecurityException {
-        return to(target.getField(name));
+        return members().getField(name);
     }
 
     public MetaAnnotatedMethod getMethod(String name, Class<?>... parameterTypes) throws NoSuchMethodException, SecurityException {
-        return to(target.getMethod(name, parameterTypes));
+        return members().getMethod(name, parameterTypes);
     }
 
     public MetaAnnotatedConstructor<T> getConstructor(Class<?>... parameterTypes) throws NoSuchMethodException, SecurityException {
-        return new MetaAnnotatedConstructor(target.getConstructor(parameterTypes));
+        return members().getConstructor(parameterTypes);
     }
 
     public MetaAnnotatedClass<?>[] getDeclaredClasses() throws SecurityException {
-        return to(target.getDeclaredClasses());
+        return members().getDeclaredClasses().clone();
     }
 
     public MetaAnnotatedField[] getDeclaredFields() throws SecurityException {
-        return to(target.getDeclaredFields());
+        return members().getDeclaredFields().clone();
     }
 
     public MetaAnnotatedMethod[] getDeclaredMethods() throws SecurityException {
-        return to(target.getDeclaredMethods());
+        return members().getDeclaredMethods().clone();
     }
 
     public MetaAnnotatedConstructor<?>[] getDeclaredConstructors() throws SecurityException {
-        return to(target.getDeclaredConstructors());
+        return members().getDeclaredConstructors().clone();
     }
 
     public MetaAnnotatedField getDeclaredField(String name) throws NoSuchFieldException, SecurityException {
-        return to(target.getDeclaredField(name));
+        return members().getDeclaredField(name);
     }
 
     public MetaAnnotatedMethod getDeclaredMethod(String name, Class<?>... parameterTypes) throws NoSuchMethodException, SecurityException {
-        return to(target.getDeclaredMethod(name, parameterTypes));
+        return members().getDeclaredMethod(name, parameterTypes);
     }
 
     public MetaAnnotatedConstructor<T> getDeclaredConstructor(Class<?>... parameterTypes) throws NoSuchMethodException, SecurityException {
-        return new MetaAnnotatedConstructor(target.getDeclaredConstructor(parameterTypes));
+        return members().getDeclaredConstructor(parameterTypes);
     }
 
     public InputStream getResourceAsStream(String name) {
@@ -250,28 +265,12 @@ public class MetaAnnotatedClass<T> extends MetaAnnotatedObject<Class<T>> {
         return target.asSubclass(clazz);
     }
 
-    private MetaAnnotatedMethod[] to(Method[] a) {
-        MetaAnnotatedMethod[] b = new MetaAnnotatedMethod[a.length];
-        for (int i = 0; i < a.length; i++) {
-            b[i] = new MetaAnnotatedMethod(a[i]);
-        }
-        return b;
-    }
-
     private MetaAnnotatedMethod to(Method method) {
-        return new MetaAnnotatedMethod(method);
-    }
-
-    private MetaAnnotatedConstructor<?>[] to(Constructor<?>[] a) {
-        MetaAnnotatedConstructor<?>[] b = new MetaAnnotatedConstructor[a.length];
-        for (int i = 0; i < a.length; i++) {
-            b[i] = new MetaAnnotatedConstructor(a[i]);
-        }
-        return b;
+        return resolver.of(method);
     }
 
     private MetaAnnotatedConstructor<?> to(Constructor<?> constructor) {
-        return new MetaAnnotatedConstructor(constructor);
+        return resolver.of(constructor);
     }
 
     private MetaAnnotatedClass<?>[] to(Class<?>[] a) {
@@ -282,16 +281,4 @@ public class MetaAnnotatedClass<T> extends MetaAnnotatedObject<Class<T>> {
         return b;
     }
 
-    private MetaAnnotatedField[] to(Field[] a) {
-        MetaAnnotatedField[] b = new MetaAnnotatedField[a.length];
-        for (int i = 0; i < a.length; i++) {
-            b[i] = new MetaAnnotatedField(a[i]);
-        }
-        return b;
-    }
-
-    private MetaAnnotatedField to(Field field) {
-        return new MetaAnnotatedField(field);
-    }
-
 }
\ No newline at end of file
@@ -21,21 +21,30 @@ import java.lang.reflect.Constructor;
 /**
  * @author David Blevins
  */
-public class MetaAnnotatedConstructor<T> extends MetaAnnotatedObject<Constructor<T>> implements AnnotatedMethod<Constructor<T>> {
-
-    private Annotation[][] parameterAnnotations;
+public class MetaAnnotatedConstructor<T> extends MetaAnnotatedExecutable<Constructor<T>> implements AnnotatedMethod<Constructor<T>> {
 
     public MetaAnnotatedConstructor(Constructor<T> target) {
-        super(target, unroll(target));
-        this.parameterAnnotations = unrollParameters(target.getParameterAnnotations());
+        this(target, MetatypeResolver.getDefault());
+    }
+
+    MetaAnnotatedConstructor(Constructor<T> target, MetatypeResolver resolver) {
+        super(target, resolver);
+    }
+
+    /**
+     * The shared instance for the constructor, repeated calls are a cache hit
+     * and the returned wrappers can be compared by identity
+     */
+    public static <T> MetaAnnotatedConstructor<T> of(Constructor<T> constructor) {
+        return MetatypeResolver.getDefault().of(constructor);
     }
 
     public Annotation[] getDeclaredAnnotations() {
         return get().getDeclaredAnnotations();
     }
 
-    public Annotation[][] getParameterAnnotations() {
-        return parameterAnnotations;
+    Annotation[][] getDeclaredParameterAnnotations() {
+        return target.getParameterAnnotations();
     }
 
     public Class<?> getDeclaringClass() {
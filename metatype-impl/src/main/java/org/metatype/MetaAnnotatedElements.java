@@ -0,0 +1,206 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The canonical wrappers of one resolver, one per class and one per
+ * member, and the member tables of the classes.
+ *
+ * Members are kept in a map hung off their declaring class, so like the
+ * class wrappers they go away together with the classloader that defined
+ * them.  A member whose wrapper the policy evicts or declines leaves the
+ * map, so a bounded policy bounds the map too.
+ *
+ * How long a wrapper, and with it its resolved annotations, is kept is up
+ * to the {@link CachePolicy}; with an unbounded policy the wrappers can be
+ * compared by identity.
+ *
+ * @author David Blevins
+ */
+final class MetaAnnotatedElements {
+
+    private final MetatypeResolver resolver;
+    private final CachePolicy policy;
+
+    private final ClassCache<CacheSlot<MetaAnnotatedClass<?>>> classes = new ClassCache<CacheSlot<MetaAnnotatedClass<?>>>() {
+        @Override
+        protected CacheSlot<MetaAnnotatedClass<?>> compute(Class<?> type) {
+            return new CacheSlot<MetaAnnotatedClass<?>>();
+        }
+    };
+
+    private final ClassCache<ConcurrentMap<Member, CacheSlot<MetaAnnotatedObject<?>>>> members = new ClassCache<ConcurrentMap<Member, CacheSlot<MetaAnnotatedObject<?>>>>() {
+        @Override
+        protected ConcurrentMap<Member, CacheSlot<MetaAnnotatedObject<?>>> compute(Class<?> type) {
+            return new ConcurrentHashMap<Member, CacheSlot<MetaAnnotatedObject<?>>>();
+        }
+    };
+
+    private final ClassCache<CacheSlot<MetaAnnotatedMembers>> tables = new ClassCache<CacheSlot<MetaAnnotatedMembers>>() {
+        @Override
+        protected CacheSlot<MetaAnnotatedMembers> compute(Class<?> type) {
+            return new CacheSlot<MetaAnnotatedMembers>();
+        }
+    };
+
+    MetaAnnotatedElements(MetatypeResolver resolver, CachePolicy policy) {
+        this.resolver = resolver;
+        this.policy = policy;
+    }
+
+    public <T> MetaAnnotatedClass<T> of(Class<T> clazz) {
+        if (clazz == null) return null;
+
+        final CacheSlot<MetaAnnotatedClass<?>> slot = classes.get(clazz);
+
+        final MetaAnnotatedClass<?> existing = policy.get(slot);
+        if (existing != null) return (MetaAnnotatedClass<T>) existing;
+
+        return (MetaAnnotatedClass<T>) policy.put(slot, created(new MetaAnnotatedClass<T>(clazz, resolver)));
+    }
+
+    public MetaAnnotatedMethod of(Method method) {
+        if (method == null) return null;
+
+        final CacheSlot<MetaAnnotatedObject<?>> slot = slot(method);
+
+        final MetaAnnotatedObject<?> existing = policy.get(slot);
+        if (existing != null) return (MetaAnnotatedMethod) existing;
+
+        return (MetaAnnotatedMethod) policy.put(slot, created(new MetaAnnotatedMethod(method, resolver)));
+    }
+
+    public MetaAnnotatedField of(Field field) {
+        if (field == null) return null;
+
+        final CacheSlot<MetaAnnotatedObject<?>> slot = slot(field);
+
+        final MetaAnnotatedObject<?> existing = policy.get(slot);
+        if (existing != null) return (MetaAnnotatedField) existing;
+
+        return (MetaAnnotatedField) policy.put(slot, created(new MetaAnnotatedField(field, resolver)));
+    }
+
+    public <T> MetaAnnotatedConstructor<T> of(Constructor<T> constructor) {
+        if (constructor == null) return null;
+
+        final CacheSlot<MetaAnnotatedObject<?>> slot = slot(constructor);
+
+        final MetaAnnotatedObject<?> existing = policy.get(slot);
+        if (existing != null) return (MetaAnnotatedConstructor<T>) existing;
+
+        return (MetaAnnotatedConstructor<T>) policy.put(slot, created(new MetaAnnotatedConstructor<T>(constructor, resolver)));
+    }
+
+    /**
+     * The canonical wrapper of a class or member, which may be the
+     * parent resolver's, or null for any other kind of element
+     */
+    public MetaAnnotatedObject<?> of(AnnotatedElement element) {
+        if (element instanceof Class) return resolver.of((Class<?>) element);
+        if (element instanceof Method) return resolver.of((Method) element);
+        if (element instanceof Field) return resolver.of((Field) element);
+        if (element instanceof Constructor) return resolver.of((Constructor<?>) element);
+        return null;
+    }
+
+    /**
+     * The resolved annotations of any element.  Classes and members
+     * resolve once through their canonical wrapper, anything else is
+     * looked up in the shared sets by its declared annotations.
+     */
+    public MetaAnnotationSet annotations(AnnotatedElement element) {
+        final MetaAnnotatedObject<?> annotated = of(element);
+
+        if (annotated != null) return annotated.annotations();
+
+        return resolver.resolve(element);
+    }
+
+    public MetaAnnotatedMembers members(Class<?> type) {
+        final CacheSlot<MetaAnnotatedMembers> slot = tables.get(type);
+
+        final MetaAnnotatedMembers existing = policy.get(slot);
+        if (existing != null) return existing;
+
+        return policy.put(slot, new MetaAnnotatedMembers(type, resolver));
+    }
+
+    private <E extends MetaAnnotatedObject<?>> E created(E element) {
+        if (resolver.isEager()) element.annotations();
+        return element;
+    }
+
+    private CacheSlot<MetaAnnotatedObject<?>> slot(Member member) {
+        final ConcurrentMap<Member, CacheSlot<MetaAnnotatedObject<?>>> members = this.members.get(member.getDeclaringClass());
+
+        final CacheSlot<MetaAnnotatedObject<?>> slot = members.get(member);
+        if (slot != null) return slot;
+
+        final CacheSlot<MetaAnnotatedObject<?>> created = new MemberSlot(members, member);
+        final CacheSlot<MetaAnnotatedObject<?>> existing = members.putIfAbsent(member, created);
+        return (existing != null) ? existing : created;
+    }
+
+    /**
+     * The number of member slots held for the class, for tests
+     */
+    int slots(Class<?> type) {
+        return members.get(type).size();
+    }
+
+    public CacheStats getStats() {
+        return policy.getStats();
+    }
+
+    /**
+     * Drops everything held, on the resolver's own classes and on any other
+     * it reached, such as Object, where it would otherwise stay for good
+     */
+    public void dispose() {
+        classes.dispose();
+        members.dispose();
+        tables.dispose();
+    }
+
+    /**
+     * Leaves the map of its declaring class once emptied
+     */
+    private static final class MemberSlot extends CacheSlot<MetaAnnotatedObject<?>> {
+
+        private final ConcurrentMap<Member, CacheSlot<MetaAnnotatedObject<?>>> members;
+        private final Member member;
+
+        private MemberSlot(ConcurrentMap<Member, CacheSlot<MetaAnnotatedObject<?>>> members, Member member) {
+            super(member);
+            this.members = members;
+            this.member = member;
+        }
+
+        @Override
+        void released() {
+            members.remove(member, this);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * The parameter annotations shared by methods and constructors
+ *
+ * @author David Blevins
+ */
+public abstract class MetaAnnotatedExecutable<T> extends MetaAnnotatedObject<T> {
+
+    private volatile MetaAnnotatedParameters parameters;
+
+    MetaAnnotatedExecutable(T target, MetatypeResolver resolver) {
+        super(target, resolver);
+    }
+
+    public Annotation[][] getParameterAnnotations() {
+        return parameters().getAll();
+    }
+
+    /**
+     * The annotation of the type on the parameter, declared or meta, or null
+     */
+    public <A extends Annotation> A getParameterAnnotation(int index, Class<A> annotationClass) {
+        return parameters().get(index).getAnnotation(annotationClass);
+    }
+
+    public boolean isParameterAnnotationPresent(int index, Class<? extends Annotation> annotationClass) {
+        return parameters().get(index).contains(annotationClass);
+    }
+
+    /**
+     * The resolved annotations of the parameter, unrolled on first use
+     */
+    public MetaAnnotationSet getParameterMetaAnnotationSet(int index) {
+        return parameters().get(index);
+    }
+
+    /**
+     * The parameter annotations as declared on the target
+     */
+    abstract Annotation[][] getDeclaredParameterAnnotations();
+
+    private MetaAnnotatedParameters parameters() {
+        MetaAnnotatedParameters parameters = this.parameters;
+
+        if (parameters == null) {
+            parameters = new MetaAnnotatedParameters(getDeclaredParameterAnnotations(), resolver);
+            this.parameters = parameters;
+        }
+
+        return parameters;
+    }
+}
@@ -24,7 +24,19 @@ import java.lang.reflect.Field;
 public class MetaAnnotatedField extends MetaAnnotatedObject<Field> implements AnnotatedMember<Field> {
 
     public MetaAnnotatedField(Field field) {
-        super(field, unroll(field));
+        this(field, MetatypeResolver.getDefault());
+    }
+
+    MetaAnnotatedField(Field field, MetatypeResolver resolver) {
+        super(field, resolver);
+    }
+
+    /**
+     * The shared instance for the field, repeated calls are a cache hit
+     * and the returned wrappers can be compared by identity
+     */
+    public static MetaAnnotatedField of(Field field) {
+        return MetatypeResolver.getDefault().of(field);
     }
 
     public Annotation[] getDeclaredAnnotations() {
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The member table of a class.  Each kind of member is looked up from the
+ * JDK and wrapped once, then served from here, indexed by name.
+ *
+ * The wrappers held are the shared ones of the resolver the table
+ * belongs to, which do not unroll anything until they are queried.
+ *
+ * @author David Blevins
+ */
+final class MetaAnnotatedMembers {
+
+    private final Class<?> type;
+    private final MetatypeResolver resolver;
+
+    private volatile Table<MetaAnnotatedMethod> methods;
+    private volatile Table<MetaAnnotatedMethod> declaredMethods;
+    private volatile Table<MetaAnnotatedField> fields;
+    private volatile Table<MetaAnnotatedField> declaredFields;
+    private volatile MetaAnnotatedConstructor<?>[] constructors;
+    private volatile MetaAnnotatedConstructor<?>[] declaredConstructors;
+    private volatile MetaAnnotatedClass<?>[] classes;
+    private volatile MetaAnnotatedClass<?>[] declaredClasses;
+
+    MetaAnnotatedMembers(Class<?> type, MetatypeResolver resolver) {
+        this.type = type;
+        this.resolver = resolver;
+    }
+
+    public MetaAnnotatedMethod[] getMethods() {
+        return methods().members;
+    }
+
+    public MetaAnnotatedMethod[] getDeclaredMethods() {
+        return declaredMethods().members;
+    }
+
+    public MetaAnnotatedField[] getFields() {
+        return fields().members;
+    }
+
+    public MetaAnnotatedField[] getDeclaredFields() {
+        return declaredFields().members;
+    }
+
+    public MetaAnnotatedConstructor<?>[] getConstructors() {
+        MetaAnnotatedConstructor<?>[] constructors = this.constructors;
+        if (constructors == null) {
+            constructors = wrap(type.getConstructors());
+            this.constructors = constructors;
+        }
+        return constructors;
+    }
+
+    public MetaAnnotatedConstructor<?>[] getDeclaredConstructors() {
+        MetaAnnotatedConstructor<?>[] constructors = this.declaredConstructors;
+        if (constructors == null) {
+            constructors = wrap(type.getDeclaredConstructors());
+            this.declaredConstructors = constructors;
+        }
+        return constructors;
+    }
+
+    public MetaAnnotatedClass<?>[] getClasses() {
+        MetaAnnotatedClass<?>[] classes = this.classes;
+        if (classes == null) {
+            classes = wrap(type.getClasses());
+            this.classes = classes;
+        }
+        return classes;
+    }
+
+    public MetaAnnotatedClass<?>[] getDeclaredClasses() {
+        MetaAnnotatedClass<?>[] classes = this.declaredClasses;
+        if (classes == null) {
+            classes = wrap(type.getDeclaredClasses());
+            this.declaredClasses = classes;
+        }
+        return classes;
+    }
+
+    public MetaAnnotatedMethod getMethod(String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+        final MetaAnnotatedMethod method = find(methods(), name, parameterTypes);
+        if (method != null) return method;
+
+        // not found or ambiguous, let the JDK decide or throw
+        return resolver.of(type.getMethod(name, parameterTypes));
+    }
+
+    public MetaAnnotatedMethod getDeclaredMethod(String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+        final MetaAnnotatedMethod method = find(declaredMethods(), name, parameterTypes);
+        if (method != null) return method;
+
+        // not found or ambiguous, let the JDK decide or throw
+        return resolver.of(type.getDeclaredMethod(name, parameterTypes));
+    }
+
+    public MetaAnnotatedField getField(String name) throws NoSuchFieldException {
+        // same search order as the JDK, so the first one found is the one that hides the others
+        final MetaAnnotatedField[] fields = fields().get(name);
+        if (fields != null) return fields[0];
+
+        return resolver.of(type.getField(name));
+    }
+
+    public MetaAnnotatedField getDeclaredField(String name) throws NoSuchFieldException {
+        final MetaAnnotatedField[] fields = declaredFields().get(name);
+        if (fields != null) return fields[0];
+
+        return resolver.of(type.getDeclaredField(name));
+    }
+
+    public <T> MetaAnnotatedConstructor<T> getConstructor(Class<?>... parameterTypes) throws NoSuchMethodException {
+        final MetaAnnotatedConstructor<?> constructor = find(getConstructors(), parameterTypes);
+        if (constructor != null) return (MetaAnnotatedConstructor<T>) constructor;
+
+        return (MetaAnnotatedConstructor<T>) resolver.of(type.getConstructor(parameterTypes));
+    }
+
+    public <T> MetaAnnotatedConstructor<T> getDeclaredConstructor(Class<?>... parameterTypes) throws NoSuchMethodException {
+        final MetaAnnotatedConstructor<?> constructor = find(getDeclaredConstructors(), parameterTypes);
+        if (constructor != null) return (MetaAnnotatedConstructor<T>) constructor;
+
+        return (MetaAnnotatedConstructor<T>) resolver.of(type.getDeclaredConstructor(parameterTypes));
+    }
+
+    private Table<MetaAnnotatedMethod> methods() {
+        Table<MetaAnnotatedMethod> table = this.methods;
+        if (table == null) {
+            table = methods(type.getMethods());
+            this.methods = table;
+        }
+        return table;
+    }
+
+    private Table<MetaAnnotatedMethod> declaredMethods() {
+        Table<MetaAnnotatedMethod> table = this.declaredMethods;
+        if (table == null) {
+            table = methods(type.getDeclaredMethods());
+            this.declaredMethods = table;
+        }
+        return table;
+    }
+
+    private Table<MetaAnnotatedField> fields() {
+        Table<MetaAnnotatedField> table = this.fields;
+        if (table == null) {
+            table = fields(type.getFields());
+            this.fields = table;
+        }
+        return table;
+    }
+
+    private Table<MetaAnnotatedField> declaredFields() {
+        Table<MetaAnnotatedField> table = this.declaredFields;
+        if (table == null) {
+            table = fields(type.getDeclaredFields());
+            this.declaredFields = table;
+        }
+        return table;
+    }
+
+    private static MetaAnnotatedMethod find(Table<MetaAnnotatedMethod> table, String name, Class<?>[] parameterTypes) {
+        final MetaAnnotatedMethod[] methods = table.get(name);
+        if (methods == null) return null;
+
+        MetaAnnotatedMethod found = null;
+
+        for (MetaAnnotatedMethod method : methods) {
+            if (!Arrays.equals(method.get().getParameterTypes(), parameterTypes)) continue;
+
+            // covariant returns, the JDK picks the most specific
+            if (found != null) return null;
+
+            found = method;
+        }
+
+        return found;
+    }
+
+    private static MetaAnnotatedConstructor<?> find(MetaAnnotatedConstructor<?>[] constructors, Class<?>[] parameterTypes) {
+        for (MetaAnnotatedConstructor<?> constructor : constructors) {
+            if (Arrays.equals(constructor.get().getParameterTypes(), parameterTypes)) return constructor;
+        }
+        return null;
+    }
+
+    private Table<MetaAnnotatedMethod> methods(Method[] a) {
+        final MetaAnnotatedMethod[] b = new MetaAnnotatedMethod[a.length];
+        for (int i = 0; i < a.length; i++) {
+            b[i] = resolver.of(a[i]);
+        }
+        return new Table<MetaAnnotatedMethod>(b, new MetaAnnotatedMethod[0]);
+    }
+
+    private Table<MetaAnnotatedField> fields(Field[] a) {
+        final MetaAnnotatedField[] b = new MetaAnnotatedField[a.length];
+        for (int i = 0; i < a.length; i++) {
+            b[i] = resolver.of(a[i]);
+        }
+        return new Table<MetaAnnotatedField>(b, new MetaAnnotatedField[0]);
+    }
+
+    private MetaAnnotatedConstructor<?>[] wrap(Constructor<?>[] a) {
+        final MetaAnnotatedConstructor<?>[] b = new MetaAnnotatedConstructor[a.length];
+        for (int i = 0; i < a.length; i++) {
+            b[i] = resolver.of(a[i]);
+        }
+        return b;
+    }
+
+    private MetaAnnotatedClass<?>[] wrap(Class<?>[] a) {
+        final MetaAnnotatedClass<?>[] b = new MetaAnnotatedClass[a.length];
+        for (int i = 0; i < a.length; i++) {
+            b[i] = resolver.of(a[i]);
+        }
+        return b;
+    }
+
+    /**
+     * Members in JDK order plus an index of them by name
+     */
+    private static final class Table<M extends AnnotatedMember<?>> {
+        private final M[] members;
+        private final Map<String, M[]> byName = new HashMap<String, M[]>();
+
+        private Table(M[] members, M[] empty) {
+            this.members = members;
+
+            final Map<String, List<M>> lists = new HashMap<String, List<M>>();
+
+            for (M member : members) {
+                List<M> list = lists.get(member.getName());
+                if (list == null) {
+                    list = new ArrayList<M>(1);
+                    lists.put(member.getName(), list);
+                }
+                list.add(member);
+            }
+
+            for (Map.Entry<String, List<M>> entry : lists.entrySet()) {
+                byName.put(entry.getKey(), entry.getValue().toArray(empty));
+            }
+        }
+
+        private M[] get(String name) {
+            return byName.get(name);
+        }
+    }
+}
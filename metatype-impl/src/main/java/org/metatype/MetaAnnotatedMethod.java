@@ -17,29 +17,34 @@ package org.metatype;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
 
 /**
  * @author David Blevins
  */
-public class MetaAnnotatedMethod extends MetaAnnotatedObject<Method> implements AnnotatedMethod<Method> {
-
-    private final Annotation[][] parameterAnnotations;
+public class MetaAnnotatedMethod extends MetaAnnotatedExecutable<Method> implements AnnotatedMethod<Method> {
 
     public MetaAnnotatedMethod(Method method) {
-        super(method, unroll(method));
+        this(method, MetatypeResolver.getDefault());
+    }
+
+    MetaAnnotatedMethod(Method method, MetatypeResolver resolver) {
+        super(method, resolver);
+    }
 
-        this.parameterAnnotations = unrollParameters(method.getParameterAnnotations());
+    /**
+     * The shared instance for the method, repeated calls are a cache hit
+     * and the returned wrappers can be compared by identity
+     */
+    public static MetaAnnotatedMethod of(Method method) {
+        return MetatypeResolver.getDefault().of(method);
     }
 
     public Annotation[] getDeclaredAnnotations() {
         return target.getDeclaredAnnotations();
     }
 
-    public Annotation[][] getParameterAnnotations() {
-        return parameterAnnotations;
+    Annotation[][] getDeclaredParameterAnnotations() {
+        return target.getParameterAnnotations();
     }
 
     public Class<?> getDeclaringClass() {
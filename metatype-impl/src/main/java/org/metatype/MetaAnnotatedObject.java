@@ -15,36 +15,25 @@
  */
 package org.metatype;
 
-import javax.annotation.Metaroot;
-import javax.annotation.Metatype;
-
-import static java.util.Arrays.asList;
-
 import java.lang.annotation.Annotation;
-import java.lang.annotation.Documented;
-import java.lang.annotation.ElementType;
-import java.lang.annotation.Retention;
-import java.lang.annotation.Target;
 import java.lang.reflect.AnnotatedElement;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * @author David Blevins
  */
 public abstract class MetaAnnotatedObject<T> implements MetaAnnotated<T> {
-    protected final Map<Class<? extends Annotation>, MetaAnnotation<?>> annotations = new HashMap<Class<? extends Annotation>, MetaAnnotation<?>>();
     protected final T target;
 
-    MetaAnnotatedObject(T target, Map<Class<? extends Annotation>, MetaAnnotation<?>> annotations) {
+    final MetatypeResolver resolver;
+
+    private volatile MetaAnnotationSet annotations;
+
+    MetaAnnotatedObject(T target, MetatypeResolver resolver) {
         this.target = target;
-        this.annotations.putAll(annotations);
+        this.resolver = resolver;
     }
 
     public T get() {
@@ -52,211 +41,126 @@ public abstract class MetaAnnotatedObject<T> implements MetaAnnotated<T> {
     }
 
     public boolean isAnnotationPresent(Class<? extends Annotation> annotationClass) {
-        return annotations.containsKey(annotationClass);
+        return annotations().contains(annotationClass);
     }
 
     public <T extends Annotation> T getAnnotation(Class<T> annotationClass) {
-        MetaAnnotation<T> annotation = (MetaAnnotation<T>) annotations.get(annotationClass);
-        return (annotation == null) ? null : annotation.get();
+        return annotations().getAnnotation(annotationClass);
     }
 
-    public Annotation[] getAnnotations() {
-        Annotation[] annotations = new Annotation[this.annotations.size()];
-
-        int i = 0;
-        for (MetaAnnotation annotation : this.annotations.values()) {
-            annotations[i++] = annotation.get();
-        }
-
-        return annotations;
+    public boolean isAnnotationPresent(AnnotationKey<?> key) {
+        return annotations().contains(key);
     }
 
-    public Collection<MetaAnnotation<?>> getMetaAnnotations() {
-        return Collections.unmodifiableCollection(annotations.values());
+    /**
+     * The annotation of the key's type, declared or meta, or null
+     */
+    public <A extends Annotation> A getAnnotation(AnnotationKey<A> key) {
+        return annotations().getAnnotation(key);
     }
 
-    @Override
-    public boolean equals(Object obj) {
-        return get().equals(obj);
+    /**
+     * The annotation of the key's type with its depth and conflicts, or null
+     */
+    public <A extends Annotation> MetaAnnotation<A> getMetaAnnotation(AnnotationKey<A> key) {
+        return annotations().get(key);
     }
 
-    @Override
-    public int hashCode() {
-        return get().hashCode();
+    /**
+     * True if every one of the annotation types is present
+     */
+    public boolean hasAll(AnnotationSet annotationTypes) {
+        return annotations().containsAll(annotationTypes);
     }
 
-    @Override
-    public String toString() {
-        return get().toString();
+    /**
+     * True if at least one of the annotation types is present
+     */
+    public boolean hasAny(AnnotationSet annotationTypes) {
+        return annotations().containsAny(annotationTypes);
     }
 
-
-    private static void unroll(Class<? extends Annotation> clazz, int depth, Map<Class<? extends Annotation>, MetaAnnotation<?>> found) {
-        if (!isMetaAnnotation(clazz)) return;
-
-        for (Annotation annotation : getDeclaredMetaAnnotations(clazz)) {
-            Class<? extends Annotation> type = annotation.annotationType();
-
-            MetaAnnotation existing = found.get(type);
-
-            if (existing != null) {
-
-                if (existing.getDepth() > depth) {
-
-                    // OVERWRITE
-
-                    found.put(type, new MetaAnnotation(annotation, depth));
-
-                    unroll(type, depth + 1, found);
-
-                } else if (existing.getDepth() < depth) {
-
-                    // IGNORE
-
-                    // ignore, what we have already is higher priority
-
-                } else {
-
-                    // CONFLICT
-
-                    // They are the same depth and therefore conflicting
-                    existing.getConflicts().add(new MetaAnnotation(annotation, depth));
-
-                }
-
-            } else {
-
-                // NEW
-
-                found.put(type, new MetaAnnotation(annotation, depth));
-
-                unroll(type, depth + 1, found);
-
-            }
-        }
+    public Annotation[] getAnnotations() {
+        return annotations().getAnnotations();
     }
 
-    private static Collection<Annotation> getDeclaredMetaAnnotations(Class<? extends Annotation> clazz) {
-
-        Map<Class, Annotation> map = new HashMap<Class, Annotation>();
-
-        // pull in the annotations declared on this annotation
-
-        for (Annotation annotation : clazz.getDeclaredAnnotations()) {
-            map.put(annotation.annotationType(), annotation);
-        }
-
-        List<Annotation[]> groups = new ArrayList<Annotation[]>();
-
-        Class<? extends Annotation> metatype = getMetatype(clazz);
-        if (metatype != null) {
-            try {
-                Class<?> def = clazz.getClassLoader().loadClass(clazz.getName() + "$$");
-
-                List<AnnotatedElement> elements = new ArrayList<AnnotatedElement>();
-
-                elements.addAll(asList(def.getDeclaredFields()));
-                elements.addAll(asList(def.getDeclaredConstructors()));
-                elements.addAll(asList(def.getDeclaredMethods()));
-
-                for (Method method : def.getDeclaredMethods()) {
-                    for (Annotation[] array : method.getParameterAnnotations()) {
-                        groups.add(array);
-                    }
-                }
-
-                for (Constructor constructor : def.getDeclaredConstructors()) {
-                    for (Annotation[] array : constructor.getParameterAnnotations()) {
-                        groups.add(array);
-                    }
-                }
-
-                for (AnnotatedElement element : elements) {
-                    groups.add(element.getDeclaredAnnotations());
-                }
-
-                for (Annotation[] annotations : groups) {
-                    if (contains(annotations, clazz)) {
-                        for (Annotation annotation : annotations) {
-                            map.put(annotation.annotationType(), annotation);
-                        }
-                    }
-                }
-            } catch (ClassNotFoundException e) {
-                // inner class is optional
-            }
-        }
-
-        // TODO: why not? maybe ignore all annotations that are not applicable
-        map.remove(Target.class);
-        map.remove(Retention.class);
-        map.remove(Documented.class);
-        // if the chicken is an egg, carry it forward
-        if (!isMetaAnnotation(metatype))
-            map.remove(metatype);
-        map.remove(clazz);
-
-        return map.values();
+    public Collection<MetaAnnotation<?>> getMetaAnnotations() {
+        return annotations().getMetaAnnotations();
     }
 
-    private static boolean contains(Annotation[] annotations, Class<? extends Annotation> clazz) {
-        for (Annotation annotation : annotations) {
-            if (clazz.equals(annotation.annotationType())) return true;
-        }
-        return false;
+    /**
+     * The resolved annotations as a whole.  Elements that declare the same
+     * annotations share the same set, and sets with the same content are
+     * equal, so this can be used to group elements by their configuration.
+     */
+    public MetaAnnotationSet getMetaAnnotationSet() {
+        return annotations();
     }
 
-    private static Class<? extends Annotation> getMetatype(Class<? extends Annotation> clazz) {
-        for (Annotation annotation : clazz.getDeclaredAnnotations()) {
-            Class<? extends Annotation> type = annotation.annotationType();
+    /**
+     * The unrolled annotations of the target.  Nothing is unrolled until
+     * the first call, the result is then published to all threads.
+     */
+    protected MetaAnnotationSet annotations() {
+        MetaAnnotationSet set = this.annotations;
 
-            if (isMetatypeAnnotation(type)) return type;
+        if (set == null) {
+            // racing threads compute the same result, any of them may win
+            set = resolver.resolve((AnnotatedElement) target);
+            this.annotations = set;
         }
 
-        return null;
+        return set;
     }
 
-    private static boolean isMetaAnnotation(Class<? extends Annotation> clazz) {
-        for (Annotation annotation : clazz.getDeclaredAnnotations()) {
-            if (isMetatypeAnnotation(annotation.annotationType())) return true;
-        }
-
-        return false;
+    /**
+     * The resolver this element, and every element reached from it, resolves through
+     */
+    public MetatypeResolver getResolver() {
+        return resolver;
     }
 
-    private static boolean isMetatypeAnnotation(Class<? extends Annotation> type) {
-        if (Metatype.class.equals(type)) return true;
-
-        for (Annotation annotation : type.getAnnotations()) {
-            if (Metaroot.class.equals(annotation.annotationType())) return true;
-        }
+    boolean isResolved() {
+        return annotations != null;
+    }
 
-        return _isMetatypeAnnotation(type);
+    @Override
+    public boolean equals(Object obj) {
+        return get().equals(obj);
     }
 
-    private static boolean _isMetatypeAnnotation(Class<? extends Annotation> type) {
-         if (isSelfAnnotated(type, "Metatype")) return true;
+    @Override
+    public int hashCode() {
+        return get().hashCode();
+    }
 
-         for (Annotation annotation : type.getAnnotations()) {
-             if (isSelfAnnotated(annotation.annotationType(), "Metaroot")) return true;
-         }
+    @Override
+    public String toString() {
+        return get().toString();
+    }
 
-         return false;
-     }
 
-     private static boolean isSelfAnnotated(Class<? extends Annotation> type, String name) {
-         return type.isAnnotationPresent(type) && type.getSimpleName().equals(name) && validTarget(type);
-     }
+    /**
+     * Resolves a single annotation type against the annotations, without
+     * unrolling anything else.  Only the declared annotations whose closure
+     * reaches the type are consulted, and a declared match ends the search.
+     */
+    static <A extends Annotation> MetaAnnotation<A> find(Annotation[] annotations, Class<A> type) {
+        for (Annotation annotation : annotations) {
+            if (annotation.annotationType() == type) return new MetaAnnotation<A>((A) annotation, 0).freeze();
+        }
 
+        MetaAnnotation<?> found = null;
 
-    private static boolean validTarget(Class<? extends Annotation> type) {
-        final Target target = type.getAnnotation(Target.class);
+        for (Annotation annotation : annotations) {
+            final MetaAnnotation<A> entry = MetaAnnotationClosure.of(annotation.annotationType()).get(type);
 
-        if (target == null) return false;
+            if (entry == null) continue;
 
-        final ElementType[] targets = target.value();
+            found = MetaAnnotationClosure.merge(found, entry, entry.getDepth());
+        }
 
-        return targets.length == 1 && targets[0] == ElementType.ANNOTATION_TYPE;
+        return (found == null) ? null : (MetaAnnotation<A>) found.freeze();
     }
 
     protected static Map<Class<? extends Annotation>, MetaAnnotation<?>> unroll(AnnotatedElement element) {
@@ -264,34 +168,47 @@ public abstract class MetaAnnotatedObject<T> implements MetaAnnotated<T> {
     }
 
     protected static Map<Class<? extends Annotation>, MetaAnnotation<?>> unroll(Annotation[] annotations) {
-        final Map<Class<? extends Annotation>, MetaAnnotation<?>> map = new HashMap<Class<? extends Annotation>, MetaAnnotation<?>>();
+        final Map<Class<? extends Annotation>, MetaAnnotation<?>> map = new LinkedHashMap<Class<? extends Annotation>, MetaAnnotation<?>>();
 
         for (Annotation annotation : annotations) {
 
             map.put(annotation.annotationType(), new MetaAnnotation(annotation, 0));
 
-            unroll(annotation.annotationType(), 1, map);
+            MetaAnnotationClosure.of(annotation.annotationType()).mergeInto(map, 0);
 
         }
 
         return map;
     }
 
+    /**
+     * Unrolls only what the filter lets through, breadth first from all the
+     * declared annotations at once.  Types that cannot lead to anything the
+     * filter keeps are never expanded.
+     */
+    static Map<Class<? extends Annotation>, MetaAnnotation<?>> unroll(Annotation[] annotations, AnnotationFilter filter) {
+        if (filter == AnnotationFilter.ALL) return unroll(annotations);
+
+        final MetaAnnotationWorklist worklist = MetaAnnotationWorklist.acquire();
+        try {
+            for (Annotation annotation : annotations) {
+                worklist.declared(annotation, filter);
+            }
+
+            worklist.unroll(filter);
+
+            return worklist.map(filter);
+        } finally {
+            worklist.release();
+        }
+    }
+
     protected Annotation[][] unrollParameters(Annotation[][] parameterAnnotations) {
         final Annotation[][] unrolledParameters = new Annotation[parameterAnnotations.length][];
 
         int i = 0;
         for (Annotation[] annotations : parameterAnnotations) {
-            final Map<Class<? extends Annotation>, MetaAnnotation<?>> map = unroll(annotations);
-
-            int j = 0;
-
-            final Annotation[] unrolled = new Annotation[map.size()];
-            for (MetaAnnotation<?> metaAnnotation : map.values()) {
-                unrolled[j++] = metaAnnotation.get();
-            }
-
-            unrolledParameters[i++] = unrolled;
+            unrolledParameters[i++] = resolver.resolve(annotations).getAnnotations();
         }
         return unrolledParameters;
     }
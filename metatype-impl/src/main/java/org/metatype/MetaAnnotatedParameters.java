@@ -0,0 +1,70 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.annotation.Annotation;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The parameter annotations of a method or constructor, each parameter
+ * unrolled independently the first time it is asked for.
+ *
+ * @author David Blevins
+ */
+final class MetaAnnotatedParameters {
+
+    private final Annotation[][] declared;
+    private final MetatypeResolver resolver;
+    private final AtomicReferenceArray<MetaAnnotationSet> unrolled;
+
+    MetaAnnotatedParameters(Annotation[][] declared, MetatypeResolver resolver) {
+        this.declared = declared;
+        this.resolver = resolver;
+        this.unrolled = new AtomicReferenceArray<MetaAnnotationSet>(declared.length);
+    }
+
+    public int size() {
+        return declared.length;
+    }
+
+    public MetaAnnotationSet get(int index) {
+        MetaAnnotationSet annotations = unrolled.get(index);
+
+        if (annotations == null) {
+            annotations = resolver.resolve(declared[index]);
+
+            if (!unrolled.compareAndSet(index, null, annotations)) {
+                annotations = unrolled.get(index);
+            }
+        }
+
+        return annotations;
+    }
+
+    /**
+     * A fresh copy on each call, as with Method.getParameterAnnotations(),
+     * the resolved sets themselves are never exposed for writing
+     */
+    public Annotation[][] getAll() {
+        final Annotation[][] all = new Annotation[declared.length][];
+
+        for (int i = 0; i < all.length; i++) {
+            all[i] = get(i).getAnnotations();
+        }
+
+        return all;
+    }
+}
@@ -17,16 +17,26 @@ package org.metatype;
 
 import java.lang.annotation.Annotation;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
+ * An annotation found on an element, directly or through its
+ * meta-annotations, and how far from the element it was found.
+ *
+ * Instances are frozen once resolution is done, after which they never
+ * change and can be shared freely between threads.
+ *
  * @author David Blevins
  */
 public class MetaAnnotation<T extends Annotation> {
     private final T annotation;
     private final int depth;
 
-    private final List<MetaAnnotation<T>> conflicts = new ArrayList<MetaAnnotation<T>>();
+    // most annotations never conflict, the list is created on the first one
+    private List<MetaAnnotation<T>> conflicts;
+
+    private boolean frozen;
 
     MetaAnnotation(T annotation, int depth) {
         this.annotation = annotation;
@@ -42,6 +52,30 @@ public class MetaAnnotation<T extends Annotation> {
     }
 
     public List<MetaAnnotation<T>> getConflicts() {
+        if (conflicts == null) return Collections.emptyList();
         return conflicts;
     }
+
+    void addConflict(MetaAnnotation<T> conflict) {
+        if (frozen) throw new IllegalStateException("Resolved annotations cannot be changed");
+        if (conflicts == null) conflicts = new ArrayList<MetaAnnotation<T>>(2);
+        conflicts.add(conflict);
+    }
+
+    /**
+     * Ends resolution of this annotation, the conflicts are final from here on
+     */
+    MetaAnnotation<T> freeze() {
+        if (frozen) return this;
+
+        if (conflicts != null) {
+            for (MetaAnnotation<T> conflict : conflicts) {
+                conflict.freeze();
+            }
+            conflicts = Collections.unmodifiableList(conflicts);
+        }
+
+        frozen = true;
+        return this;
+    }
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The transitive closure of a single annotation type: every annotation
+ * reachable from it with its depth relative to the annotation itself.
+ *
+ * The closure only depends on the annotation type, so it is computed
+ * once and cached against the class via a ClassValue.  Nothing is held
+ * that the annotation type's own classloader could not already see.
+ *
+ * @author David Blevins
+ */
+final class MetaAnnotationClosure {
+
+    private static final ClassValue<MetaAnnotationClosure> CLOSURES = new ClassCache<MetaAnnotationClosure>() {
+        @Override
+        protected MetaAnnotationClosure compute(Class<?> type) {
+            return new MetaAnnotationClosure(type.asSubclass(Annotation.class));
+        }
+    };
+
+    private final List<MetaAnnotation<?>> entries;
+
+    // the types reachable from the root, and the index of each one's entry by its rank in the set
+    private final AnnotationSet reachable;
+    private final int[] slots;
+
+    // annotation types expanded, and edges back to types already reached
+    private final int visits;
+    private final int revisits;
+
+    private MetaAnnotationClosure(Class<? extends Annotation> type) {
+        final MetaAnnotationWorklist worklist = MetaAnnotationWorklist.acquire();
+        try {
+            worklist.root(type);
+            worklist.unroll(AnnotationFilter.ALL);
+
+            this.entries = worklist.closure();
+            this.visits = worklist.getVisits();
+            this.revisits = worklist.getRevisits();
+        } finally {
+            worklist.release();
+        }
+
+        final Class<? extends Annotation>[] types = new Class[entries.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = entries.get(i).get().annotationType();
+        }
+
+        // shared by every element using the closure, merges only ever copy them
+        for (MetaAnnotation<?> entry : entries) {
+            entry.freeze();
+        }
+
+        this.reachable = AnnotationSet.distinct(types);
+        this.slots = new int[types.length];
+
+        for (int i = 0; i < types.length; i++) {
+            slots[reachable.rank(AnnotationTypeRegistry.id(types[i]))] = i;
+        }
+    }
+
+    public static MetaAnnotationClosure of(Class<? extends Annotation> type) {
+        return CLOSURES.get(type);
+    }
+
+    /**
+     * Every annotation type the root eventually implies, not including itself
+     */
+    public AnnotationSet getReachable() {
+        return reachable;
+    }
+
+    /**
+     * The minimum depth at which the type is reached from the root,
+     * or -1 if it cannot be reached
+     */
+    public int depthOf(Class<? extends Annotation> type) {
+        final MetaAnnotation<?> entry = get(type);
+        return (entry == null) ? -1 : entry.getDepth();
+    }
+
+    /**
+     * The entry for the type, with its conflicts, or null if it cannot be reached
+     */
+    public <A extends Annotation> MetaAnnotation<A> get(Class<A> type) {
+        final int rank = reachable.rank(AnnotationTypeRegistry.id(type));
+        return (rank < 0) ? null : (MetaAnnotation<A>) entries.get(slots[rank]);
+    }
+
+    int getVisits() {
+        return visits;
+    }
+
+    int getRevisits() {
+        return revisits;
+    }
+
+    /**
+     * Merges this closure into the map of an element where the root
+     * annotation of the closure sits at the specified depth.
+     */
+    public void mergeInto(Map<Class<? extends Annotation>, MetaAnnotation<?>> found, int offset) {
+        for (MetaAnnotation<?> entry : entries) {
+            final Class<? extends Annotation> type = entry.get().annotationType();
+
+            final MetaAnnotation<?> existing = found.get(type);
+            final MetaAnnotation<?> merged = merge(existing, entry, entry.getDepth() + offset);
+
+            if (merged != existing) found.put(type, merged);
+        }
+    }
+
+    /**
+     * Merges an entry of a closure, moved to the specified depth, with what
+     * was found for its type so far.  Returns the entry that should now be
+     * held for the type, which is the existing one if nothing was replaced.
+     */
+    static MetaAnnotation<?> merge(MetaAnnotation existing, MetaAnnotation<?> entry, int depth) {
+        if (existing == null || existing.getDepth() > depth) {
+
+            return copy(entry, depth);
+
+        } else if (existing.getDepth() == depth) {
+
+            // They are the same depth and therefore conflicting
+            conflict(existing, entry, depth);
+            for (MetaAnnotation<?> conflict : entry.getConflicts()) {
+                conflict(existing, conflict, depth);
+            }
+
+        }
+
+        return existing;
+    }
+
+    private static MetaAnnotation<?> copy(MetaAnnotation<?> entry, int depth) {
+        final MetaAnnotation copy = new MetaAnnotation(entry.get(), depth);
+        for (MetaAnnotation<?> conflict : entry.getConflicts()) {
+            copy.addConflict(new MetaAnnotation(conflict.get(), depth));
+        }
+        return copy;
+    }
+
+    private static void conflict(MetaAnnotation existing, MetaAnnotation<?> entry, int depth) {
+        // the same annotation reached through two roots is not a conflict
+        if (existing.get() == entry.get()) return;
+
+        for (Object o : existing.getConflicts()) {
+            if (((MetaAnnotation) o).get() == entry.get()) return;
+        }
+
+        existing.addConflict(new MetaAnnotation(entry.get(), depth));
+    }
+}
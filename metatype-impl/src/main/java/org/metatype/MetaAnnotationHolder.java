@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import static java.util.Arrays.asList;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Index of the optional definition holder of a meta-annotation, the inner
+ * class named <code>$</code> on which annotations that cannot be placed
+ * on the meta-annotation itself are declared.
+ *
+ * Each holder is located and scanned once per annotation type.  Types
+ * without a holder are remembered as well, so the failed lookup is not
+ * repeated.
+ *
+ * @author David Blevins
+ */
+final class MetaAnnotationHolder {
+
+    private static final MetaAnnotationHolder NONE = new MetaAnnotationHolder(null, Collections.<Annotation[]>emptyList());
+
+    private static final ClassValue<MetaAnnotationHolder> HOLDERS = new ClassCache<MetaAnnotationHolder>() {
+        @Override
+        protected MetaAnnotationHolder compute(Class<?> type) {
+            return scan(type.asSubclass(Annotation.class));
+        }
+    };
+
+    private final Class<?> holder;
+    private final List<Annotation[]> groups;
+
+    private MetaAnnotationHolder(Class<?> holder, List<Annotation[]> groups) {
+        this.holder = holder;
+        this.groups = groups;
+    }
+
+    public static MetaAnnotationHolder of(Class<? extends Annotation> type) {
+        return HOLDERS.get(type);
+    }
+
+    public boolean exists() {
+        return holder != null;
+    }
+
+    public Class<?> getHolder() {
+        return holder;
+    }
+
+    /**
+     * The annotation groups of the holder that contain the meta-annotation
+     */
+    public List<Annotation[]> getGroups() {
+        return groups;
+    }
+
+    private static MetaAnnotationHolder scan(Class<? extends Annotation> type) {
+        final Class<?> def = find(type);
+
+        if (def == null) return NONE;
+
+        final List<Annotation[]> groups = new ArrayList<Annotation[]>();
+
+        for (Method method : def.getDeclaredMethods()) {
+            groups.addAll(asList(method.getParameterAnnotations()));
+        }
+
+        for (Constructor constructor : def.getDeclaredConstructors()) {
+            groups.addAll(asList(constructor.getParameterAnnotations()));
+        }
+
+        final List<AnnotatedElement> elements = new ArrayList<AnnotatedElement>();
+
+        elements.addAll(asList(def.getDeclaredFields()));
+        elements.addAll(asList(def.getDeclaredConstructors()));
+        elements.addAll(asList(def.getDeclaredMethods()));
+
+        for (AnnotatedElement element : elements) {
+            groups.add(element.getDeclaredAnnotations());
+        }
+
+        final List<Annotation[]> matching = new ArrayList<Annotation[]>();
+
+        for (Annotation[] annotations : groups) {
+            if (contains(annotations, type)) matching.add(annotations);
+        }
+
+        return new MetaAnnotationHolder(def, Collections.unmodifiableList(matching));
+    }
+
+    private static Class<?> find(Class<? extends Annotation> type) {
+        final String name = type.getName() + "$$";
+
+        // the usual case, the holder is nested in the annotation itself
+        for (Class<?> declared : type.getDeclaredClasses()) {
+            if (declared.getName().equals(name)) return declared;
+        }
+
+        final ClassLoader loader = type.getClassLoader();
+
+        if (loader == null) return null;
+
+        try {
+            return loader.loadClass(name);
+        } catch (ClassNotFoundException e) {
+            // inner class is optional
+            return null;
+        }
+    }
+
+    private static boolean contains(Annotation[] annotations, Class<? extends Annotation> clazz) {
+        for (Annotation annotation : annotations) {
+            if (clazz.equals(annotation.annotationType())) return true;
+        }
+        return false;
+    }
+}
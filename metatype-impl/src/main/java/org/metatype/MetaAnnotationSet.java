@@ -0,0 +1,373 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.annotation.Annotation;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The resolved annotations of an element, immutable once built.
+ *
+ * Entries are kept in arrays ordered by depth, the annotations declared on
+ * the element first.  Lookups compare annotation types by identity; small
+ * sets are scanned directly and larger ones go through an open-addressed
+ * index, neither allocates.
+ *
+ * Elements declaring equal annotations share one set.  Sets also compare
+ * by their effective content, the annotations and their depths, with the
+ * hash computed up front so elements can be cheaply grouped by what they
+ * resolve to.
+ *
+ * @author David Blevins
+ */
+public final class MetaAnnotationSet {
+
+    private static final MetaAnnotation<?>[] NO_ENTRIES = new MetaAnnotation<?>[0];
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    static final MetaAnnotationSet EMPTY = new MetaAnnotationSet(NO_ENTRIES, null);
+
+    /**
+     * Canonical sets by declared annotations, striped to keep parallel
+     * resolution from queuing on a single lock.  Both the keys and the sets
+     * are weakly held, so neither outlives the elements using them.
+     */
+    private static final Map<Declared, WeakReference<MetaAnnotationSet>>[] CANONICAL = new Map[16];
+
+    static {
+        for (int i = 0; i < CANONICAL.length; i++) {
+            CANONICAL[i] = new WeakHashMap<Declared, WeakReference<MetaAnnotationSet>>();
+        }
+    }
+
+    /**
+     * Below this a straight scan of the types beats hashing
+     */
+    private static final int SCAN = 8;
+
+    private static final Comparator<MetaAnnotation<?>> DEPTH = new Comparator<MetaAnnotation<?>>() {
+        public int compare(MetaAnnotation<?> a, MetaAnnotation<?> b) {
+            return (a.getDepth() < b.getDepth()) ? -1 : ((a.getDepth() == b.getDepth()) ? 0 : 1);
+        }
+    };
+
+    private final MetaAnnotation<?>[] entries;
+    private final Class<? extends Annotation>[] types;
+    private final AnnotationSet typeSet;
+
+    // entry index by the rank of the type's id in the type set
+    private final int[] slotsByRank;
+    private final Annotation[] annotations;
+    private final Collection<MetaAnnotation<?>> view;
+    private final int hash;
+
+    // keeps the canonical map entry alive as long as the set is in use
+    private final Declared declared;
+
+    // open-addressed index into entries, only for the larger sets
+    private final Class<?>[] keys;
+    private final int[] slots;
+
+    private MetaAnnotationSet(MetaAnnotation<?>[] entries, Declared declared) {
+        this.entries = entries;
+        this.declared = declared;
+        this.types = new Class[entries.length];
+        this.annotations = (entries.length == 0) ? NO_ANNOTATIONS : new Annotation[entries.length];
+
+        for (int i = 0; i < entries.length; i++) {
+            entries[i].freeze();
+            annotations[i] = entries[i].get();
+            types[i] = annotations[i].annotationType();
+        }
+
+        this.typeSet = AnnotationSet.distinct(types);
+        this.slotsByRank = new int[types.length];
+
+        for (int i = 0; i < types.length; i++) {
+            slotsByRank[typeSet.rank(AnnotationTypeRegistry.id(types[i]))] = i;
+        }
+
+        // order plays no part in the effective configuration
+        int hash = 0;
+        for (MetaAnnotation<?> entry : entries) {
+            hash += entry.get().hashCode() ^ entry.getDepth();
+        }
+        this.hash = hash;
+
+        this.view = new AbstractList<MetaAnnotation<?>>() {
+            @Override
+            public MetaAnnotation<?> get(int index) {
+                return MetaAnnotationSet.this.entries[index];
+            }
+
+            @Override
+            public int size() {
+                return MetaAnnotationSet.this.entries.length;
+            }
+        };
+
+        if (entries.length <= SCAN) {
+            this.keys = null;
+            this.slots = null;
+            return;
+        }
+
+        int capacity = Integer.highestOneBit(entries.length) << 2;
+
+        this.keys = new Class<?>[capacity];
+        this.slots = new int[capacity];
+
+        final int mask = capacity - 1;
+
+        for (int i = 0; i < types.length; i++) {
+            int index = hash(types[i]) & mask;
+
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+
+            keys[index] = types[i];
+            slots[index] = i;
+        }
+    }
+
+    /**
+     * The set the annotations declared on an element resolve to, shared
+     * with every other element that declares equal annotations
+     */
+    static MetaAnnotationSet resolve(Annotation[] annotations) {
+        return resolve(annotations, AnnotationFilter.ALL, ConflictPolicy.KEEP);
+    }
+
+    /**
+     * As above, keeping only what passes the filter and handling conflicts
+     * as specified.  Sets are only shared between elements resolved with the
+     * same filter and conflict policy.
+     */
+    static MetaAnnotationSet resolve(Annotation[] annotations, AnnotationFilter filter, ConflictPolicy conflicts) {
+        if (annotations.length == 0) return EMPTY;
+
+        final Declared declared = new Declared(annotations, filter, conflicts);
+        final Map<Declared, WeakReference<MetaAnnotationSet>> canonical = CANONICAL[declared.hash & (CANONICAL.length - 1)];
+
+        synchronized (canonical) {
+            final MetaAnnotationSet set = get(canonical, declared);
+            if (set != null) return set;
+        }
+
+        final Map<Class<? extends Annotation>, MetaAnnotation<?>> found = MetaAnnotatedObject.unroll(annotations, filter);
+        conflicts.apply(found);
+
+        final MetaAnnotationSet created = of(found, declared);
+
+        synchronized (canonical) {
+            final MetaAnnotationSet set = get(canonical, declared);
+            if (set != null) return set;
+
+            canonical.put(declared, new WeakReference<MetaAnnotationSet>(created));
+        }
+
+        return created;
+    }
+
+    private static MetaAnnotationSet get(Map<Declared, WeakReference<MetaAnnotationSet>> canonical, Declared declared) {
+        final WeakReference<MetaAnnotationSet> reference = canonical.get(declared);
+        return (reference == null) ? null : reference.get();
+    }
+
+    static MetaAnnotationSet of(Map<Class<? extends Annotation>, MetaAnnotation<?>> map, Declared declared) {
+        if (map.isEmpty()) return EMPTY;
+
+        final MetaAnnotation<?>[] entries = map.values().toArray(new MetaAnnotation<?>[map.size()]);
+
+        // stable, so within a depth the order of discovery is kept
+        Arrays.sort(entries, DEPTH);
+
+        return new MetaAnnotationSet(entries, declared);
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    public boolean isEmpty() {
+        return entries.length == 0;
+    }
+
+    public boolean contains(Class<? extends Annotation> type) {
+        return typeSet.contains(type);
+    }
+
+    /**
+     * True if every type in the specified set is present
+     */
+    public boolean containsAll(AnnotationSet types) {
+        return typeSet.containsAll(types);
+    }
+
+    /**
+     * True if at least one type in the specified set is present
+     */
+    public boolean containsAny(AnnotationSet types) {
+        return typeSet.containsAny(types);
+    }
+
+    /**
+     * The types of all the annotations in this set
+     */
+    public AnnotationSet getTypes() {
+        return typeSet;
+    }
+
+    public <A extends Annotation> MetaAnnotation<A> get(Class<A> type) {
+        final int index = indexOf(type);
+        return (index < 0) ? null : (MetaAnnotation<A>) entries[index];
+    }
+
+    public <A extends Annotation> A getAnnotation(Class<A> type) {
+        final int index = indexOf(type);
+        return (index < 0) ? null : (A) annotations[index];
+    }
+
+    public <A extends Annotation> MetaAnnotation<A> get(AnnotationKey<A> key) {
+        final int slot = key.slot(this);
+        return (slot < 0) ? null : (MetaAnnotation<A>) entries[slot];
+    }
+
+    public <A extends Annotation> A getAnnotation(AnnotationKey<A> key) {
+        final int slot = key.slot(this);
+        return (slot < 0) ? null : (A) annotations[slot];
+    }
+
+    public boolean contains(AnnotationKey<?> key) {
+        return typeSet.contains(key.getId());
+    }
+
+    /**
+     * The index of the entry for the type with the specified id, or -1
+     */
+    int slot(int id) {
+        final int rank = typeSet.rank(id);
+        return (rank < 0) ? -1 : slotsByRank[rank];
+    }
+
+    /**
+     * A copy of the annotations, ordered by depth
+     */
+    public Annotation[] getAnnotations() {
+        return (annotations.length == 0) ? annotations : annotations.clone();
+    }
+
+    /**
+     * A read-only view of the entries, ordered by depth
+     */
+    public Collection<MetaAnnotation<?>> getMetaAnnotations() {
+        return view;
+    }
+
+    private int indexOf(Class<?> type) {
+        if (keys == null) {
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] == type) return i;
+            }
+            return -1;
+        }
+
+        final int mask = keys.length - 1;
+
+        int index = hash(type) & mask;
+
+        Class<?> key;
+        while ((key = keys[index]) != null) {
+            if (key == type) return slots[index];
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private static int hash(Class<?> type) {
+        final int h = System.identityHashCode(type);
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MetaAnnotationSet)) return false;
+
+        final MetaAnnotationSet that = (MetaAnnotationSet) o;
+
+        if (hash != that.hash || entries.length != that.entries.length) return false;
+
+        for (int i = 0; i < entries.length; i++) {
+            final int index = that.indexOf(types[i]);
+
+            if (index < 0) return false;
+            if (entries[i].getDepth() != that.entries[index].getDepth()) return false;
+            if (!annotations[i].equals(that.annotations[index])) return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(annotations);
+    }
+
+    /**
+     * The annotations declared on an element, in declaration order
+     */
+    static final class Declared {
+        private final Annotation[] annotations;
+        private final AnnotationFilter filter;
+        private final ConflictPolicy conflicts;
+        private final int hash;
+
+        Declared(Annotation[] annotations, AnnotationFilter filter, ConflictPolicy conflicts) {
+            this.annotations = annotations;
+            this.filter = filter;
+            this.conflicts = conflicts;
+            this.hash = 31 * (31 * Arrays.hashCode(annotations) + filter.hashCode()) + conflicts.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Declared)) return false;
+
+            final Declared that = (Declared) o;
+            return hash == that.hash && filter == that.filter && conflicts == that.conflicts && Arrays.equals(annotations, that.annotations);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
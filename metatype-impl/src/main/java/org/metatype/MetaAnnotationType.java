@@ -0,0 +1,216 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import javax.annotation.Metaroot;
+import javax.annotation.Metatype;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Everything the unroll needs to know about an annotation type, computed
+ * once per type rather than on each visit.
+ *
+ * @author David Blevins
+ */
+final class MetaAnnotationType {
+
+    private static final ClassValue<MetaAnnotationType> TYPES = new ClassCache<MetaAnnotationType>() {
+        @Override
+        protected MetaAnnotationType compute(Class<?> type) {
+            return new MetaAnnotationType(type.asSubclass(Annotation.class));
+        }
+    };
+
+    /**
+     * Kept apart from the descriptors as it only looks at the type itself
+     * and so can be consulted while a descriptor is still being built,
+     * even when meta-annotations refer to each other in a cycle.
+     */
+    private static final ClassValue<Boolean> MARKERS = new ClassCache<Boolean>() {
+        @Override
+        protected Boolean compute(Class<?> type) {
+            return isMetatypeAnnotation(type.asSubclass(Annotation.class));
+        }
+    };
+
+    private final Class<? extends Annotation> type;
+    private final Class<? extends Annotation> metatype;
+    private final Set<ElementType> targets;
+
+    private volatile Collection<Annotation> declaredMetaAnnotations;
+
+    private MetaAnnotationType(Class<? extends Annotation> type) {
+        this.type = type;
+        this.metatype = getMetatype(type);
+
+        final Target target = type.getAnnotation(Target.class);
+        this.targets = (target == null) ? null : Collections.unmodifiableSet(toSet(target.value()));
+    }
+
+    public static MetaAnnotationType of(Class<? extends Annotation> type) {
+        return TYPES.get(type);
+    }
+
+    public Class<? extends Annotation> getType() {
+        return type;
+    }
+
+    /**
+     * True if the type is annotated with a metatype, such as @Metatype
+     */
+    public boolean isMetaAnnotation() {
+        return metatype != null;
+    }
+
+    /**
+     * The metatype annotation, such as @Metatype, this type is marked with
+     */
+    public Class<? extends Annotation> getMetatype() {
+        return metatype;
+    }
+
+    /**
+     * True if the type itself marks meta-annotations, such as @Metatype
+     */
+    public boolean isMetatypeAnnotation() {
+        return MARKERS.get(type);
+    }
+
+    /**
+     * Annotations such as @Target or @Retention are about the annotation
+     * type itself and have no meaning on the elements it is applied to
+     */
+    public boolean isAnnotationTypeOnly() {
+        return targets != null && targets.size() == 1 && targets.contains(ElementType.ANNOTATION_TYPE);
+    }
+
+    /**
+     * The annotations this meta-annotation carries forward, including those
+     * declared alongside it in its $ holder
+     */
+    public Collection<Annotation> getDeclaredMetaAnnotations() {
+        Collection<Annotation> annotations = this.declaredMetaAnnotations;
+
+        if (annotations == null) {
+            annotations = Collections.unmodifiableCollection(findDeclaredMetaAnnotations());
+            this.declaredMetaAnnotations = annotations;
+        }
+
+        return annotations;
+    }
+
+    private Collection<Annotation> findDeclaredMetaAnnotations() {
+
+        final Map<Class, Annotation> map = new LinkedHashMap<Class, Annotation>();
+
+        if (metatype == null) return map.values();
+
+        // pull in the annotations declared on this annotation
+
+        for (Annotation annotation : type.getDeclaredAnnotations()) {
+            map.put(annotation.annotationType(), annotation);
+        }
+
+        for (Annotation[] annotations : MetaAnnotationHolder.of(type).getGroups()) {
+            for (Annotation annotation : annotations) {
+                map.put(annotation.annotationType(), annotation);
+            }
+        }
+
+        final Collection<Annotation> applicable = new ArrayList<Annotation>(map.size());
+
+        for (Annotation annotation : map.values()) {
+            final Class<? extends Annotation> annotationType = annotation.annotationType();
+
+            if (annotationType == type) continue;
+
+            final MetaAnnotationType descriptor = of(annotationType);
+
+            // if the chicken is an egg, carry it forward
+            if (descriptor.isMetaAnnotation()) {
+                applicable.add(annotation);
+                continue;
+            }
+
+            if (annotationType == metatype) continue;
+
+            // @Target, @Retention, @Documented and friends describe only the annotation type
+            if (descriptor.isAnnotationTypeOnly()) continue;
+
+            applicable.add(annotation);
+        }
+
+        return applicable;
+    }
+
+    private static Set<ElementType> toSet(ElementType[] elementTypes) {
+        final Set<ElementType> set = EnumSet.noneOf(ElementType.class);
+        Collections.addAll(set, elementTypes);
+        return set;
+    }
+
+    private static Class<? extends Annotation> getMetatype(Class<? extends Annotation> clazz) {
+        for (Annotation annotation : clazz.getDeclaredAnnotations()) {
+            Class<? extends Annotation> type = annotation.annotationType();
+
+            if (MARKERS.get(type)) return type;
+        }
+
+        return null;
+    }
+
+    private static boolean isMetatypeAnnotation(Class<? extends Annotation> type) {
+        if (Metatype.class.equals(type)) return true;
+
+        final Annotation[] annotations = type.getAnnotations();
+
+        for (Annotation annotation : annotations) {
+            if (Metaroot.class.equals(annotation.annotationType())) return true;
+        }
+
+        if (isSelfAnnotated(type, "Metatype")) return true;
+
+        for (Annotation annotation : annotations) {
+            if (isSelfAnnotated(annotation.annotationType(), "Metaroot")) return true;
+        }
+
+        return false;
+    }
+
+    private static boolean isSelfAnnotated(Class<? extends Annotation> type, String name) {
+        return type.isAnnotationPresent(type) && type.getSimpleName().equals(name) && validTarget(type);
+    }
+
+    private static boolean validTarget(Class<? extends Annotation> type) {
+        final Target target = type.getAnnotation(Target.class);
+
+        if (target == null) return false;
+
+        final ElementType[] targets = target.value();
+
+        return targets.length == 1 && targets[0] == ElementType.ANNOTATION_TYPE;
+    }
+}
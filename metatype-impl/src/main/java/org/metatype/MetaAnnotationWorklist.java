@@ -0,0 +1,180 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Breadth first over the meta-annotation graph.  Every type is first
+ * reached at its minimum depth, so each is expanded exactly once and
+ * nothing found is ever replaced.  Any other annotation of a type
+ * reached at that same depth is a conflict, anything deeper is
+ * ignored, which is where cycles such as Chicken/Egg end.
+ *
+ * The queue doubles as the result: types are discovered in depth order.
+ *
+ * Worklists are reused per thread, {@link #acquire()} one and
+ * {@link #release()} it when the results have been copied out.
+ *
+ * @author David Blevins
+ */
+final class MetaAnnotationWorklist {
+
+    private static final ThreadLocal<MetaAnnotationWorklist> WORKLISTS = new ThreadLocal<MetaAnnotationWorklist>() {
+        @Override
+        protected MetaAnnotationWorklist initialValue() {
+            return new MetaAnnotationWorklist();
+        }
+    };
+
+    private Class<? extends Annotation>[] types = new Class[16];
+    private MetaAnnotation<?>[] found = new MetaAnnotation[16];
+    private int size;
+
+    private final Map<Class<?>, Integer> index = new IdentityHashMap<Class<?>, Integer>();
+
+    private int visits;
+    private int revisits;
+
+    private boolean busy;
+
+    private MetaAnnotationWorklist() {
+        // no-op
+    }
+
+    public static MetaAnnotationWorklist acquire() {
+        MetaAnnotationWorklist worklist = WORKLISTS.get();
+
+        // should one unroll ever set off another on this thread, it gets a worklist of its own
+        if (worklist.busy) worklist = new MetaAnnotationWorklist();
+
+        worklist.busy = true;
+        return worklist;
+    }
+
+    /**
+     * Starts from the annotation type itself, which is held at depth 0
+     * so that cycles back to it are ignored
+     */
+    public void root(Class<? extends Annotation> type) {
+        add(type, new MetaAnnotation(null, 0));
+    }
+
+    /**
+     * Starts from an annotation declared on an element
+     */
+    public void declared(Annotation annotation, AnnotationFilter filter) {
+        final Class<? extends Annotation> type = annotation.annotationType();
+
+        if (filter.skips(type) || index.containsKey(type)) return;
+
+        add(type, new MetaAnnotation(annotation, 0));
+    }
+
+    public void unroll(AnnotationFilter filter) {
+        for (int head = 0; head < size; head++) {
+            if (!filter.expands(types[head])) continue;
+
+            final MetaAnnotationType metaAnnotationType = MetaAnnotationType.of(types[head]);
+
+            if (!metaAnnotationType.isMetaAnnotation()) continue;
+
+            visits++;
+
+            final int depth = found[head].getDepth() + 1;
+
+            for (Annotation annotation : metaAnnotationType.getDeclaredMetaAnnotations()) {
+                final Class<? extends Annotation> type = annotation.annotationType();
+
+                final Integer existing = index.get(type);
+
+                if (existing == null) {
+
+                    if (filter.skips(type)) continue;
+
+                    add(type, new MetaAnnotation(annotation, depth));
+
+                } else if (found[existing].getDepth() == depth) {
+
+                    // They are the same depth and therefore conflicting
+                    found[existing].addConflict(new MetaAnnotation(annotation, depth));
+
+                } else {
+
+                    // reached before and higher up, what we have is higher priority
+                    revisits++;
+
+                }
+            }
+        }
+    }
+
+    private void add(Class<? extends Annotation> type, MetaAnnotation<?> metaAnnotation) {
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            found = Arrays.copyOf(found, size * 2);
+        }
+
+        index.put(type, size);
+        types[size] = type;
+        found[size] = metaAnnotation;
+        size++;
+    }
+
+    /**
+     * Everything found, less the root
+     */
+    public List<MetaAnnotation<?>> closure() {
+        return new ArrayList<MetaAnnotation<?>>(Arrays.asList(found).subList(1, size));
+    }
+
+    /**
+     * What the filter keeps of everything found
+     */
+    public Map<Class<? extends Annotation>, MetaAnnotation<?>> map(AnnotationFilter filter) {
+        final Map<Class<? extends Annotation>, MetaAnnotation<?>> map = new LinkedHashMap<Class<? extends Annotation>, MetaAnnotation<?>>();
+
+        for (int i = 0; i < size; i++) {
+            if (filter.keeps(types[i])) map.put(types[i], found[i]);
+        }
+
+        return map;
+    }
+
+    public int getVisits() {
+        return visits;
+    }
+
+    public int getRevisits() {
+        return revisits;
+    }
+
+    public void release() {
+        Arrays.fill(types, 0, size, null);
+        Arrays.fill(found, 0, size, null);
+        index.clear();
+        size = 0;
+        visits = 0;
+        revisits = 0;
+        busy = false;
+    }
+}
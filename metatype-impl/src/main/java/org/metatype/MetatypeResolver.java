@@ -0,0 +1,364 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.metatype.scan.ClassSource;
+import org.metatype.scan.MetatypeIndex;
+
+/**
+ * Resolves meta-annotations with its own caches and settings, so that
+ * each deployment in a server can have caches it tunes and throws away
+ * independently of the others.
+ *
+ * <pre>
+ * final MetatypeResolver resolver = MetatypeResolver.create()
+ *         .withCachePolicy(CachePolicy.bounded(10000))
+ *         .withFilter(AnnotationFilter.interestedIn(Stateless.class, Path.class))
+ *         .withConflictPolicy(ConflictPolicy.FAIL);
+ *
+ * final MetaAnnotatedClass&lt;?&gt; bean = resolver.of(beanClass);
+ * ...
+ * resolver.close();
+ * </pre>
+ *
+ * The wrappers a resolver hands out, and every wrapper reached from them,
+ * resolve through it.  The static of() factories, the public wrapper
+ * constructors and {@link Metatypes} use the shared {@link #getDefault()}
+ * resolver.
+ *
+ * What an annotation type implies is the same for every resolver and is
+ * computed once for all of them.
+ *
+ * Resolvers can be arranged like the classloaders they serve.  A child
+ * resolver of a module's loader keeps only the classes of that loader,
+ * and of the loaders beneath it; the classes of shared libraries, and the
+ * members they declare, are resolved once by the parent and handed out
+ * to every child.
+ *
+ * <pre>
+ * final MetatypeResolver application = MetatypeResolver.create();
+ *
+ * final MetatypeResolver web = application.newChild(webLoader);
+ * final MetatypeResolver ejb = application.newChild(ejbLoader);
+ * </pre>
+ *
+ * A resolver with a filter can also use the {@link MetatypeIndex}es a
+ * build embedded in the application's jars, and then never reads or
+ * unrolls the annotations of elements they show to have none of the
+ * filter's types.
+ *
+ * <pre>
+ * final MetatypeResolver resolver = MetatypeResolver.create()
+ *         .withFilter(AnnotationFilter.interestedIn(Schedule.class))
+ *         .withIndexes(applicationLoader);
+ * </pre>
+ *
+ * @author David Blevins
+ */
+public final class MetatypeResolver {
+
+    private static final List<MetatypeIndex> NO_INDEXES = Collections.emptyList();
+
+    private static final MetatypeResolver DEFAULT = new MetatypeResolver(null, null, CachePolicy.DEFAULT, AnnotationFilter.ALL, ConflictPolicy.KEEP, false, NO_INDEXES);
+
+    // null for a resolver of its own, which resolves every class itself
+    private final MetatypeResolver parent;
+
+    // weak, a forgotten child resolver must not keep its module alive
+    private final WeakReference<ClassLoader> loader;
+
+    private final CachePolicy cachePolicy;
+    private final AnnotationFilter filter;
+    private final ConflictPolicy conflictPolicy;
+    private final boolean eager;
+    private final List<MetatypeIndex> indexes;
+
+    // null if no index serves the filter
+    private final IndexedElements indexed;
+
+    // created on first use, so resolvers only configured on the way to
+    // another, or closed and not used again, cache nothing
+    private volatile MetaAnnotatedElements elements;
+
+    private MetatypeResolver(MetatypeResolver parent, WeakReference<ClassLoader> loader, CachePolicy cachePolicy, AnnotationFilter filter, ConflictPolicy conflictPolicy, boolean eager, List<MetatypeIndex> indexes) {
+        if (cachePolicy == null) throw new NullPointerException("cachePolicy");
+        if (filter == null) throw new NullPointerException("filter");
+        if (conflictPolicy == null) throw new NullPointerException("conflictPolicy");
+
+        if (parent != null && (parent.filter != filter || parent.conflictPolicy != conflictPolicy)) {
+            throw new IllegalArgumentException("A child resolver must use the filter and conflict policy of its parent: " + parent);
+        }
+
+        this.parent = parent;
+        this.loader = loader;
+        this.cachePolicy = cachePolicy;
+        this.filter = filter;
+        this.conflictPolicy = conflictPolicy;
+        this.eager = eager;
+        this.indexes = indexes;
+        this.indexed = IndexedElements.of(indexes, filter);
+    }
+
+    /**
+     * The resolver behind the static API
+     */
+    public static MetatypeResolver getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * A new resolver with the default settings and caches of its own:
+     * unbounded, unfiltered, conflicts kept, and lazy
+     */
+    public static MetatypeResolver create() {
+        return new MetatypeResolver(null, null, CachePolicy.unbounded(), AnnotationFilter.ALL, ConflictPolicy.KEEP, false, NO_INDEXES);
+    }
+
+    /**
+     * A resolver for the classes of the loader, and of any loader beneath
+     * it, that leaves all other classes to this one.  It has caches of its
+     * own under the same cache policy, and resolves as this one does.
+     *
+     * Closing the child drops only what it cached itself.  It uses no
+     * indexes until given its own.
+     */
+    public MetatypeResolver newChild(ClassLoader loader) {
+        if (loader == null) throw new NullPointerException("loader");
+        return new MetatypeResolver(this, new WeakReference<ClassLoader>(loader), cachePolicy, filter, conflictPolicy, eager, NO_INDEXES);
+    }
+
+    /**
+     * A resolver like this one, but with new caches under the policy
+     */
+    public MetatypeResolver withCachePolicy(CachePolicy cachePolicy) {
+        return new MetatypeResolver(parent, loader, cachePolicy, filter, conflictPolicy, eager, indexes);
+    }
+
+    /**
+     * A resolver like this one, but only resolving what passes the filter
+     */
+    public MetatypeResolver withFilter(AnnotationFilter filter) {
+        return new MetatypeResolver(parent, loader, cachePolicy, filter, conflictPolicy, eager, indexes);
+    }
+
+    public MetatypeResolver withConflictPolicy(ConflictPolicy conflictPolicy) {
+        return new MetatypeResolver(parent, loader, cachePolicy, filter, conflictPolicy, eager, indexes);
+    }
+
+    /**
+     * A resolver like this one, but which resolves the annotations of each
+     * element as soon as its wrapper is created, rather than when first
+     * asked.  Suits deployment time scanning, where everything is asked
+     * anyway and any conflict should surface early.
+     */
+    public MetatypeResolver eager() {
+        return new MetatypeResolver(parent, loader, cachePolicy, filter, conflictPolicy, true, indexes);
+    }
+
+    public MetatypeResolver lazy() {
+        return new MetatypeResolver(parent, loader, cachePolicy, filter, conflictPolicy, false, indexes);
+    }
+
+    /**
+     * A resolver like this one that also uses the indexes embedded in the
+     * jars and directories of the loader, see {@link MetatypeIndex}.  Only
+     * an index built for every type the filter keeps, and whose annotation
+     * types are the same as those the loader has, is used.  Indexes that
+     * do not qualify are ignored, and so are all of them with no filter.
+     *
+     * @throws IllegalStateException if an index cannot be read
+     */
+    public MetatypeResolver withIndexes(ClassLoader loader) {
+        final List<MetatypeIndex> current = new ArrayList<MetatypeIndex>();
+
+        try {
+            final ClassSource source = ClassSource.of(loader);
+
+            for (MetatypeIndex index : MetatypeIndex.discover(loader)) {
+                if (index.isCurrent(source)) current.add(index);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read the metatype indexes of " + loader, e);
+        }
+
+        return new MetatypeResolver(parent, this.loader, cachePolicy, filter, conflictPolicy, eager, Collections.unmodifiableList(current));
+    }
+
+    public CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    public AnnotationFilter getFilter() {
+        return filter;
+    }
+
+    public ConflictPolicy getConflictPolicy() {
+        return conflictPolicy;
+    }
+
+    public boolean isEager() {
+        return eager;
+    }
+
+    /**
+     * The current indexes found by {@link #withIndexes}, whether the filter
+     * can use them or not
+     */
+    public List<MetatypeIndex> getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * The resolver the classes of other loaders are left to, or null
+     */
+    public MetatypeResolver getParent() {
+        return parent;
+    }
+
+    /**
+     * The loader whose classes a child resolver keeps, or null
+     */
+    public ClassLoader getClassLoader() {
+        return (loader == null) ? null : loader.get();
+    }
+
+    public <T> MetaAnnotatedClass<T> of(Class<T> clazz) {
+        if (clazz != null && !owns(clazz)) return parent.of(clazz);
+        return elements().of(clazz);
+    }
+
+    public MetaAnnotatedMethod of(Method method) {
+        if (method != null && !owns(method.getDeclaringClass())) return parent.of(method);
+        return elements().of(method);
+    }
+
+    public MetaAnnotatedField of(Field field) {
+        if (field != null && !owns(field.getDeclaringClass())) return parent.of(field);
+        return elements().of(field);
+    }
+
+    public <T> MetaAnnotatedConstructor<T> of(Constructor<T> constructor) {
+        if (constructor != null && !owns(constructor.getDeclaringClass())) return parent.of(constructor);
+        return elements().of(constructor);
+    }
+
+    /**
+     * The resolved annotations of the element, cached for classes and members
+     */
+    public MetaAnnotationSet getMetaAnnotationSet(AnnotatedElement element) {
+        return elements().annotations(element);
+    }
+
+    public CacheStats getCacheStats() {
+        return cachePolicy.getStats();
+    }
+
+    /**
+     * Drops everything this resolver has cached, for when the deployment it
+     * served is gone.  Wrappers already handed out keep what they resolved,
+     * and the resolver itself can still be used, starting over empty.
+     */
+    public void close() {
+        if (this == DEFAULT) throw new IllegalStateException("The default resolver cannot be closed");
+
+        final MetaAnnotatedElements elements;
+
+        synchronized (this) {
+            elements = this.elements;
+            this.elements = null;
+        }
+
+        if (elements != null) elements.dispose();
+    }
+
+    private MetaAnnotatedElements elements() {
+        MetaAnnotatedElements elements = this.elements;
+
+        if (elements == null) {
+            synchronized (this) {
+                elements = this.elements;
+
+                if (elements == null) {
+                    elements = new MetaAnnotatedElements(this, cachePolicy);
+                    this.elements = elements;
+                }
+            }
+        }
+
+        return elements;
+    }
+
+    MetaAnnotatedMembers members(Class<?> type) {
+        if (!owns(type)) return parent.members(type);
+        return elements().members(type);
+    }
+
+    /**
+     * True if the class is resolved and cached here rather than by the parent
+     */
+    boolean owns(Class<?> type) {
+        if (parent == null) return true;
+
+        final ClassLoader owner = loader.get();
+
+        for (ClassLoader classLoader = type.getClassLoader(); classLoader != null; classLoader = classLoader.getParent()) {
+            if (classLoader == owner) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * The set the annotations declared on an element resolve to, shared
+     * with every element declaring equal annotations and resolved with the
+     * same filter and conflict policy
+     */
+    MetaAnnotationSet resolve(Annotation[] annotations) {
+        return MetaAnnotationSet.resolve(annotations, filter, conflictPolicy);
+    }
+
+    /**
+     * As above for the annotations declared on the element, which are not
+     * even read if an index shows that none of them would be kept
+     */
+    MetaAnnotationSet resolve(AnnotatedElement element) {
+        if (indexed != null && indexed.isUnannotated(element)) return MetaAnnotationSet.EMPTY;
+        return resolve(element.getDeclaredAnnotations());
+    }
+
+    @Override
+    public String toString() {
+        return "MetatypeResolver{" +
+                ((parent == null) ? "" : "loader=" + getClassLoader() + ", ") +
+                "cachePolicy=" + cachePolicy +
+                ", filter=" + filter +
+                ", conflictPolicy=" + conflictPolicy +
+                ", eager=" + eager +
+                ((indexes.isEmpty()) ? "" : ", indexes=" + indexes) +
+                '}';
+    }
+}
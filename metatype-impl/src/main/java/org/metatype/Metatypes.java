@@ -0,0 +1,135 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * Static entry points.
+ *
+ * The element methods answer straight from reflective objects the caller
+ * already holds, with the same results as the MetaAnnotated wrappers.
+ * Each element is resolved once and cached against its class, so asking
+ * again allocates nothing.
+ *
+ * @author David Blevins
+ */
+public final class Metatypes {
+
+    private Metatypes() {
+        // no-op
+    }
+
+    /**
+     * A lookup handle for the annotation type.  Keys hold no state beyond
+     * the type's shared id, which every lookup goes through, so any number
+     * of call sites can share one; keep it in a static final all the same,
+     * to look the id up only once.
+     */
+    public static <T extends Annotation> AnnotationKey<T> key(Class<T> type) {
+        return new AnnotationKey<T>(type);
+    }
+
+    /**
+     * True if the annotation type eventually carries the implied type as a
+     * meta-annotation, or is that type.  Answered from a precomputed bitset,
+     * no element is unrolled.
+     */
+    public static boolean implies(Class<? extends Annotation> annotation, Class<? extends Annotation> implied) {
+        return annotation == implied || MetaAnnotationClosure.of(annotation).getReachable().contains(implied);
+    }
+
+    /**
+     * The minimum depth at which the implied type is reached from the
+     * annotation type, 0 for the type itself, or -1 if it is not implied
+     */
+    public static int depth(Class<? extends Annotation> annotation, Class<? extends Annotation> implied) {
+        if (annotation == implied) return 0;
+        return MetaAnnotationClosure.of(annotation).depthOf(implied);
+    }
+
+    /**
+     * The annotation of the type on the element, declared or meta, with its
+     * depth and any conflicts, or null if it is not present.  Only the
+     * declared annotations able to reach the type are looked at and none of
+     * the element's other annotations are unrolled, so for a single type on
+     * a fresh element this is much cheaper than a full MetaAnnotatedObject.
+     */
+    public static <A extends Annotation> MetaAnnotation<A> find(AnnotatedElement element, Class<A> type) {
+        return MetaAnnotatedObject.find(element.getDeclaredAnnotations(), type);
+    }
+
+    public static boolean isAnnotationPresent(AnnotatedElement element, Class<? extends Annotation> annotationClass) {
+        return MetatypeResolver.getDefault().getMetaAnnotationSet(element).contains(annotationClass);
+    }
+
+    public static boolean isAnnotationPresent(AnnotatedElement element, AnnotationKey<?> key) {
+        return MetatypeResolver.getDefault().getMetaAnnotationSet(element).contains(key);
+    }
+
+    public static <A extends Annotation> A getAnnotation(AnnotatedElement element, Class<A> annotationClass) {
+        return MetatypeResolver.getDefault().getMetaAnnotationSet(element).getAnnotation(annotationClass);
+    }
+
+    public static <A extends Annotation> A getAnnotation(AnnotatedElement element, AnnotationKey<A> key) {
+        return MetatypeResolver.getDefault().getMetaAnnotationSet(element).getAnnotation(key);
+    }
+
+    public static Annotation[] getAnnotations(AnnotatedElement element) {
+        return MetatypeResolver.getDefault().getMetaAnnotationSet(element).getAnnotations();
+    }
+
+    public static MetaAnnotationSet getMetaAnnotationSet(AnnotatedElement element) {
+        return MetatypeResolver.getDefault().getMetaAnnotationSet(element);
+    }
+
+    public static Annotation[][] getParameterAnnotations(Method method) {
+        return MetatypeResolver.getDefault().of(method).getParameterAnnotations();
+    }
+
+    public static Annotation[][] getParameterAnnotations(Constructor<?> constructor) {
+        return MetatypeResolver.getDefault().of(constructor).getParameterAnnotations();
+    }
+
+    public static <A extends Annotation> A getParameterAnnotation(Method method, int index, Class<A> annotationClass) {
+        return MetatypeResolver.getDefault().of(method).getParameterAnnotation(index, annotationClass);
+    }
+
+    public static <A extends Annotation> A getParameterAnnotation(Constructor<?> constructor, int index, Class<A> annotationClass) {
+        return MetatypeResolver.getDefault().of(constructor).getParameterAnnotation(index, annotationClass);
+    }
+
+    /**
+     * Drops everything cached for classes the loader defined.  Caches are
+     * weak and never keep a loader alive, so this is not needed to avoid
+     * leaks, but it frees the memory as soon as an application is
+     * undeployed rather than when its loader is eventually collected.
+     */
+    public static void evict(ClassLoader loader) {
+        ClassCache.evict(loader);
+    }
+
+    /**
+     * The counters of the policy behind the default element and member
+     * table caches, see {@link CachePolicy}
+     */
+    public static CacheStats getCacheStats() {
+        return MetatypeResolver.getDefault().getCacheStats();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An annotation as it is written in a class file, without loading its type.
+ *
+ * The values are only those present in the class file, defaults are not
+ * filled in.  They are boxed primitives and Strings, {@link EnumConstant},
+ * {@link ClassLiteral}, nested AnnotationInfo, or unmodifiable Lists of
+ * those for arrays.
+ *
+ * @author David Blevins
+ */
+public final class AnnotationInfo {
+
+    private final String type;
+    private final Map<String, Object> values;
+
+    AnnotationInfo(String type, Map<String, Object> values) {
+        this.type = type;
+        this.values = values;
+    }
+
+    /**
+     * The binary name of the annotation type, as Class.getName() gives it
+     */
+    public String getType() {
+        return type;
+    }
+
+    public Map<String, Object> getValues() {
+        return values;
+    }
+
+    /**
+     * The value of the element, or null if the class file has none
+     */
+    public Object getValue(String name) {
+        return values.get(name);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        final AnnotationInfo that = (AnnotationInfo) o;
+
+        return type.equals(that.type) && values.equals(that.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + values.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "@" + type + ((values.isEmpty()) ? "" : "(" + values + ")");
+    }
+
+    /**
+     * An enum constant, such as ElementType.METHOD in a @Target
+     */
+    public static final class EnumConstant {
+
+        private final String type;
+        private final String name;
+
+        EnumConstant(String type, String name) {
+            this.type = type;
+            this.name = name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            final EnumConstant that = (EnumConstant) o;
+
+            return type.equals(that.type) && name.equals(that.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return type + "." + name;
+        }
+    }
+
+    /**
+     * A class literal, such as String.class or int[].class
+     */
+    public static final class ClassLiteral {
+
+        private final String name;
+
+        ClassLiteral(String name) {
+            this.name = name;
+        }
+
+        /**
+         * The name as written in source: java.lang.String, int[], void
+         */
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            return name.equals(((ClassLiteral) o).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return name + ".class";
+        }
+    }
+
+    static boolean contains(List<AnnotationInfo> annotations, String type) {
+        for (AnnotationInfo annotation : annotations) {
+            if (annotation.type.equals(type)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What the unroll needs to know about an annotation type read from its
+ * class file, the counterpart of MetaAnnotationType.
+ * The type may be missing from the source, in which case it is treated as
+ * an ordinary annotation.
+ *
+ * @author David Blevins
+ */
+final class AnnotationTypeInfo {
+
+    private static final String TARGET = Target.class.getName();
+
+    private final String name;
+    private final ClassFile file;
+    private final String metatype;
+    private final Set<ElementType> targets;
+
+    private volatile List<AnnotationInfo> declaredMetaAnnotations;
+    private volatile Set<String> reachable;
+
+    AnnotationTypeInfo(String name, ClassFile file, String metatype) {
+        this.name = name;
+        this.file = file;
+        this.metatype = metatype;
+        this.targets = (file == null) ? null : targets(file);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The class file, or null if the source does not have the type
+     */
+    public ClassFile getClassFile() {
+        return file;
+    }
+
+    public boolean isMetaAnnotation() {
+        return metatype != null;
+    }
+
+    public String getMetatype() {
+        return metatype;
+    }
+
+    /**
+     * The element types of the @Target, or null if the type has no @Target
+     */
+    public Set<ElementType> getTargets() {
+        return targets;
+    }
+
+    public boolean isAnnotationTypeOnly() {
+        return targets != null && targets.size() == 1 && targets.contains(ElementType.ANNOTATION_TYPE);
+    }
+
+    List<AnnotationInfo> getDeclaredMetaAnnotations() {
+        return declaredMetaAnnotations;
+    }
+
+    void setDeclaredMetaAnnotations(List<AnnotationInfo> declaredMetaAnnotations) {
+        this.declaredMetaAnnotations = declaredMetaAnnotations;
+    }
+
+    Set<String> getReachable() {
+        return reachable;
+    }
+
+    void setReachable(Set<String> reachable) {
+        this.reachable = reachable;
+    }
+
+    static Set<ElementType> targets(ClassFile file) {
+        for (AnnotationInfo annotation : file.getAnnotations()) {
+            if (!TARGET.equals(annotation.getType())) continue;
+
+            final Set<ElementType> targets = EnumSet.noneOf(ElementType.class);
+
+            final Object value = annotation.getValue("value");
+            final List<?> values = (value instanceof List) ? (List<?>) value : Collections.singletonList(value);
+
+            for (Object constant : values) {
+                if (!(constant instanceof AnnotationInfo.EnumConstant)) continue;
+
+                try {
+                    targets.add(ElementType.valueOf(((AnnotationInfo.EnumConstant) constant).getName()));
+                } catch (IllegalArgumentException e) {
+                    // an element type newer than this VM, it cannot be ANNOTATION_TYPE
+                    return Collections.unmodifiableSet(EnumSet.allOf(ElementType.class));
+                }
+            }
+
+            return Collections.unmodifiableSet(targets);
+        }
+
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A directory of class files or a jar, open for reading by many threads
+ *
+ * @author David Blevins
+ */
+abstract class Archive implements Closeable {
+
+    private final File file;
+
+    Archive(File file) {
+        this.file = file;
+    }
+
+    static Archive open(File file) throws IOException {
+        if (file.isDirectory()) return new Directory(file);
+        if (file.isFile()) return new Jar(file);
+
+        throw new IOException("No such directory or archive: " + file.getAbsolutePath());
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * The bytes of the resource, or null if there is none
+     */
+    public abstract ByteBuffer read(String resource) throws IOException;
+
+    /**
+     * True if the resource is a class file worth scanning, rather than
+     * a module-info, package-info or something versioned under META-INF
+     */
+    static boolean isClass(String resource) {
+        return resource.endsWith(".class") && resource.indexOf('-') < 0 && !resource.startsWith("META-INF/");
+    }
+
+    static String className(String resource) {
+        return resource.substring(0, resource.length() - ".class".length()).replace('/', '.');
+    }
+
+    static String resource(String className) {
+        return className.replace('.', '/') + ".class";
+    }
+
+    static byte[] read(InputStream in, long size) throws IOException {
+        try {
+            if (size < 0 || size > Integer.MAX_VALUE) return ClassFile.readAll(in);
+
+            final byte[] bytes = new byte[(int) size];
+
+            int offset = 0;
+            while (offset < bytes.length) {
+                final int read = in.read(bytes, offset, bytes.length - offset);
+                if (read < 0) throw new IOException("Unexpected end of stream");
+                offset += read;
+            }
+
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath();
+    }
+
+    static final class Directory extends Archive {
+
+        Directory(File file) {
+            super(file);
+        }
+
+        @Override
+        public ByteBuffer read(String resource) throws IOException {
+            final File file = new File(getFile(), resource);
+
+            if (!file.isFile()) return null;
+
+            return ByteBuffer.wrap(read(new FileInputStream(file), file.length()));
+        }
+
+        @Override
+        public void close() {
+            // no-op
+        }
+    }
+
+    /**
+     * A jar, or war, mapped into memory, along with the jars it contains
+     */
+    static final class Jar extends Archive {
+
+        // where the classes of a Spring Boot jar and of a war live
+        private static final String[] PREFIXES = {"", "BOOT-INF/classes/", "WEB-INF/classes/"};
+
+        private final String path;
+        private final ZipArchive zip;
+        private final List<Nested> nested;
+
+        Jar(File file) throws IOException {
+            this(file, file.getPath(), ZipArchive.map(file));
+        }
+
+        private Jar(File file, String path, ZipArchive zip) {
+            super(file);
+            this.path = path;
+            this.zip = zip;
+            this.nested = Collections.unmodifiableList(nested(this, zip));
+        }
+
+        private static List<Nested> nested(Jar jar, ZipArchive zip) {
+            final List<Nested> nested = new ArrayList<Nested>();
+
+            for (ZipArchive.Entry entry : zip.getEntries()) {
+                final String name = entry.getName();
+
+                if (entry.isDirectory() || !(name.endsWith(".jar") || name.endsWith(".war"))) continue;
+
+                nested.add(new Nested(jar, entry));
+            }
+
+            return nested;
+        }
+
+        /**
+         * The class files directly in the jar, not in the jars it contains
+         */
+        public List<ZipArchive.Entry> getClassEntries() {
+            final List<ZipArchive.Entry> entries = new ArrayList<ZipArchive.Entry>();
+
+            for (ZipArchive.Entry entry : zip.getEntries()) {
+                if (!entry.isDirectory() && isClass(unprefixed(entry.getName()))) entries.add(entry);
+            }
+
+            return entries;
+        }
+
+        private static String unprefixed(String name) {
+            for (int i = 1; i < PREFIXES.length; i++) {
+                if (name.startsWith(PREFIXES[i])) return name.substring(PREFIXES[i].length());
+            }
+
+            return name;
+        }
+
+        /**
+         * The jars stored in this one, none of them opened yet
+         */
+        public List<Nested> getNestedJars() {
+            return nested;
+        }
+
+        @Override
+        public ByteBuffer read(String resource) throws IOException {
+            for (String prefix : PREFIXES) {
+                final ZipArchive.Entry entry = zip.getEntry(prefix + resource);
+                if (entry != null) return read(entry);
+            }
+
+            for (Nested jar : nested) {
+                final ByteBuffer bytes = jar.read(resource);
+                if (bytes != null) return bytes;
+            }
+
+            return null;
+        }
+
+        public ByteBuffer read(ZipArchive.Entry entry) throws IOException {
+            return zip.read(entry);
+        }
+
+        @Override
+        public void close() {
+            // the mapping is released when the archive is collected
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+
+    /**
+     * A jar inside another, opened only when needed.  A stored one is read
+     * in place and kept open once it is.  A deflated one has to be inflated
+     * into memory, so it is opened afresh for each scan task or lookup and
+     * let go after, and only the names of its entries are kept, so that
+     * lookups skip it without inflating it again.
+     */
+    static final class Nested {
+
+        private final Jar outer;
+        private final ZipArchive.Entry entry;
+
+        private volatile Jar opened;
+
+        // the entry names of a deflated jar, once opened
+        private volatile Set<String> names;
+
+        private Nested(Jar outer, ZipArchive.Entry entry) {
+            this.outer = outer;
+            this.entry = entry;
+        }
+
+        public String getPath() {
+            return outer.path + "!/" + entry.getName();
+        }
+
+        /**
+         * The jar, to be let go of once done with
+         */
+        public Jar open() throws IOException {
+            Jar jar = opened;
+            if (jar != null) return jar;
+
+            jar = new Jar(outer.getFile(), getPath(), new ZipArchive(outer.read(entry)));
+
+            if (entry.isStored()) {
+                opened = jar;
+            } else if (names == null && jar.nested.isEmpty()) {
+                // a jar in it could hold anything, so then nothing is skipped
+                final Set<String> names = new HashSet<String>();
+
+                for (ZipArchive.Entry inner : jar.zip.getEntries()) {
+                    names.add(inner.getName());
+                }
+
+                this.names = names;
+            }
+
+            return jar;
+        }
+
+        ByteBuffer read(String resource) throws IOException {
+            final Set<String> names = this.names;
+
+            // a deflated jar seen before is only inflated again if it can help
+            if (names != null && !contains(names, resource)) return null;
+
+            return open().read(resource);
+        }
+
+        private static boolean contains(Set<String> names, String resource) {
+            for (String prefix : Jar.PREFIXES) {
+                if (names.contains(prefix + resource)) return true;
+            }
+
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return getPath();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The parts of a class file that matter for annotations: the names, the
+ * runtime visible annotations of the class and its members, and nothing
+ * else.  Reading one neither loads nor links the class.
+ *
+ * @author David Blevins
+ */
+public final class ClassFile {
+
+    static final int ACC_INTERFACE = 0x0200;
+    static final int ACC_ANNOTATION = 0x2000;
+
+    private final int access;
+    private final String name;
+    private final String superName;
+    private final List<String> interfaces;
+    private final List<AnnotationInfo> annotations;
+    private final List<MemberInfo> fields;
+    private final List<MemberInfo> methods;
+
+    ClassFile(int access, String name, String superName, List<String> interfaces, List<AnnotationInfo> annotations, List<MemberInfo> fields, List<MemberInfo> methods) {
+        this.access = access;
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.annotations = annotations;
+        this.fields = fields;
+        this.methods = methods;
+    }
+
+    /**
+     * Reads the class file in the buffer, from its position to its limit.
+     * The buffer itself is left as it was.
+     *
+     * @throws IllegalArgumentException if the bytes are not a class file
+     */
+    public static ClassFile read(ByteBuffer bytes) {
+        return ClassFileParser.parse(bytes);
+    }
+
+    public static ClassFile read(byte[] bytes) {
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    public static ClassFile read(InputStream in) throws IOException {
+        return read(readAll(in));
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 1024));
+        final byte[] buffer = new byte[4096];
+
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+
+        return out.toByteArray();
+    }
+
+    public int getAccess() {
+        return access;
+    }
+
+    /**
+     * The binary name, as Class.getName() gives it
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The binary name of the superclass, or null for java.lang.Object
+     */
+    public String getSuperName() {
+        return superName;
+    }
+
+    public List<String> getInterfaces() {
+        return interfaces;
+    }
+
+    public boolean isInterface() {
+        return (access & ACC_INTERFACE) != 0;
+    }
+
+    public boolean isAnnotation() {
+        return (access & ACC_ANNOTATION) != 0;
+    }
+
+    public List<AnnotationInfo> getAnnotations() {
+        return annotations;
+    }
+
+    public List<MemberInfo> getFields() {
+        return fields;
+    }
+
+    /**
+     * The methods and constructors, and any static initializer, in class file order
+     */
+    public List<MemberInfo> getMethods() {
+        return methods;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
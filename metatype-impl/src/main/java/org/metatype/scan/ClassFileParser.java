@@ -0,0 +1,356 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One pass over a class file.  The constant pool is only indexed, an entry
+ * is decoded when something refers to it, and attributes other than the
+ * runtime visible annotations are skipped over by their length.
+ *
+ * @author David Blevins
+ */
+final class ClassFileParser {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final List<AnnotationInfo> NONE = Collections.emptyList();
+    private static final List<List<AnnotationInfo>> NO_PARAMETERS = Collections.emptyList();
+
+    private final ByteBuffer buffer;
+
+    // where each constant pool entry starts, just past its tag
+    private int[] offsets;
+    private String[] strings;
+
+    private List<AnnotationInfo> annotations;
+    private List<List<AnnotationInfo>> parameterAnnotations;
+
+    private ClassFileParser(ByteBuffer bytes) {
+        this.buffer = bytes.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    static ClassFile parse(ByteBuffer bytes) {
+        try {
+            return new ClassFileParser(bytes).parse();
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated class file", e);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed class file", e);
+        }
+    }
+
+    private ClassFile parse() {
+        if (buffer.getInt() != MAGIC) throw new IllegalArgumentException("Not a class file");
+
+        // minor and major version
+        skip(4);
+
+        constantPool();
+
+        final int access = u2();
+        final String name = className(u2());
+
+        final int superIndex = u2();
+        final String superName = (superIndex == 0) ? null : className(superIndex);
+
+        final int interfaceCount = u2();
+        final List<String> interfaces = new ArrayList<String>(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(className(u2()));
+        }
+
+        final List<MemberInfo> fields = members(true);
+        final List<MemberInfo> methods = members(false);
+
+        attributes();
+
+        return new ClassFile(access, name, superName, Collections.unmodifiableList(interfaces), annotations, fields, methods);
+    }
+
+    private void constantPool() {
+        final int count = u2();
+
+        offsets = new int[count];
+        strings = new String[count];
+
+        for (int i = 1; i < count; i++) {
+            final int tag = u1();
+            offsets[i] = buffer.position();
+
+            switch (tag) {
+                case 1: // Utf8
+                    skip(u2());
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    skip(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    skip(8);
+                    // takes two entries
+                    i++;
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    skip(2);
+                    break;
+                case 15: // MethodHandle
+                    skip(3);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant pool tag " + tag + " at entry " + i);
+            }
+        }
+    }
+
+    private List<MemberInfo> members(boolean field) {
+        final int count = u2();
+
+        if (count == 0) return Collections.emptyList();
+
+        final List<MemberInfo> members = new ArrayList<MemberInfo>(count);
+
+        for (int i = 0; i < count; i++) {
+            final int access = u2();
+            final String name = utf8(u2());
+            final String descriptor = utf8(u2());
+
+            attributes();
+
+            members.add(new MemberInfo(field, access, name, descriptor, annotations, parameterAnnotations));
+        }
+
+        return Collections.unmodifiableList(members);
+    }
+
+    /**
+     * Reads the attributes of the class or member just read, leaving its
+     * annotations in the fields
+     */
+    private void attributes() {
+        annotations = NONE;
+        parameterAnnotations = NO_PARAMETERS;
+
+        final int count = u2();
+
+        for (int i = 0; i < count; i++) {
+            final int nameIndex = u2();
+            final int length = buffer.getInt();
+            final int end = buffer.position() + length;
+
+            final String name = utf8(nameIndex);
+
+            if ("RuntimeVisibleAnnotations".equals(name)) {
+                annotations = annotations();
+            } else if ("RuntimeVisibleParameterAnnotations".equals(name)) {
+                parameterAnnotations = parameterAnnotations();
+            }
+
+            buffer.position(end);
+        }
+    }
+
+    private List<AnnotationInfo> annotations() {
+        final int count = u2();
+
+        if (count == 0) return NONE;
+
+        final List<AnnotationInfo> list = new ArrayList<AnnotationInfo>(count);
+
+        for (int i = 0; i < count; i++) {
+            list.add(annotation());
+        }
+
+        return Collections.unmodifiableList(list);
+    }
+
+    private List<List<AnnotationInfo>> parameterAnnotations() {
+        final int count = u1();
+
+        final List<List<AnnotationInfo>> list = new ArrayList<List<AnnotationInfo>>(count);
+
+        for (int i = 0; i < count; i++) {
+            list.add(annotations());
+        }
+
+        return Collections.unmodifiableList(list);
+    }
+
+    private AnnotationInfo annotation() {
+        final String type = typeName(utf8(u2()));
+
+        final int count = u2();
+
+        if (count == 0) return new AnnotationInfo(type, Collections.<String, Object>emptyMap());
+
+        final Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+        for (int i = 0; i < count; i++) {
+            final String name = utf8(u2());
+            values.put(name, value());
+        }
+
+        return new AnnotationInfo(type, Collections.unmodifiableMap(values));
+    }
+
+    private Object value() {
+        final int tag = u1();
+
+        switch (tag) {
+            case 'B':
+                return (byte) buffer.getInt(offsets[u2()]);
+            case 'C':
+                return (char) buffer.getInt(offsets[u2()]);
+            case 'S':
+                return (short) buffer.getInt(offsets[u2()]);
+            case 'Z':
+                return buffer.getInt(offsets[u2()]) != 0;
+            case 'I':
+                return buffer.getInt(offsets[u2()]);
+            case 'J':
+                return buffer.getLong(offsets[u2()]);
+            case 'F':
+                return buffer.getFloat(offsets[u2()]);
+            case 'D':
+                return buffer.getDouble(offsets[u2()]);
+            case 's':
+                return utf8(u2());
+            case 'e': {
+                final String type = typeName(utf8(u2()));
+                return new AnnotationInfo.EnumConstant(type, utf8(u2()));
+            }
+            case 'c':
+                return new AnnotationInfo.ClassLiteral(typeName(utf8(u2())));
+            case '@':
+                return annotation();
+            case '[': {
+                final int count = u2();
+                final List<Object> list = new ArrayList<Object>(count);
+
+                for (int i = 0; i < count; i++) {
+                    list.add(value());
+                }
+
+                return Collections.unmodifiableList(list);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown element value tag " + (char) tag);
+        }
+    }
+
+    private String className(int index) {
+        return utf8(buffer.getShort(offsets[index]) & 0xFFFF).replace('/', '.');
+    }
+
+    private String utf8(int index) {
+        String string = strings[index];
+
+        if (string == null) {
+            string = decode(offsets[index]);
+            strings[index] = string;
+        }
+
+        return string;
+    }
+
+    /**
+     * Modified UTF-8, as the class file format has it
+     */
+    private String decode(int offset) {
+        final int length = buffer.getShort(offset) & 0xFFFF;
+        final char[] chars = new char[length];
+
+        int count = 0;
+        int i = offset + 2;
+        final int end = i + length;
+
+        while (i < end) {
+            final int b = buffer.get(i++) & 0xFF;
+
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (buffer.get(i++) & 0x3F));
+            } else {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((buffer.get(i++) & 0x3F) << 6) | (buffer.get(i++) & 0x3F));
+            }
+        }
+
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * The name of the type in a field descriptor: Ljava/lang/String; is
+     * java.lang.String, [I is int[] and V is void
+     */
+    static String typeName(String descriptor) {
+        int dimensions = 0;
+        while (descriptor.charAt(dimensions) == '[') dimensions++;
+
+        String name;
+
+        switch (descriptor.charAt(dimensions)) {
+            case 'L': name = descriptor.substring(dimensions + 1, descriptor.length() - 1).replace('/', '.'); break;
+            case 'B': name = "byte"; break;
+            case 'C': name = "char"; break;
+            case 'D': name = "double"; break;
+            case 'F': name = "float"; break;
+            case 'I': name = "int"; break;
+            case 'J': name = "long"; break;
+            case 'S': name = "short"; break;
+            case 'Z': name = "boolean"; break;
+            case 'V': name = "void"; break;
+            default: throw new IllegalArgumentException("Invalid descriptor " + descriptor);
+        }
+
+        for (int i = 0; i < dimensions; i++) {
+            name += "[]";
+        }
+
+        return name;
+    }
+
+    private int u1() {
+        return buffer.get() & 0xFF;
+    }
+
+    private int u2() {
+        return buffer.getShort() & 0xFFFF;
+    }
+
+    private void skip(int bytes) {
+        buffer.position(buffer.position() + bytes);
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import javax.annotation.Metaroot;
+import javax.annotation.Metatype;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Unrolls meta-annotations from class files, by name, without loading a
+ * single class.  The rules are those of
+ * {@link org.metatype.MetaAnnotatedObject}: the same metatype markers,
+ * the same $ holders, the same depths and the same conflicts.
+ *
+ * <pre>
+ * final ClassFileResolver resolver = new ClassFileResolver(ClassSource.of(deploymentLoader));
+ *
+ * final ClassFile bean = resolver.getClassFile("com.acme.OrderBean");
+ * final Map&lt;String, MetaAnnotationInfo&gt; annotations = resolver.resolve(bean);
+ *
+ * if (annotations.containsKey("javax.ejb.Stateless")) ...
+ * </pre>
+ *
+ * Annotation types, and their holders, are read once per resolver and
+ * kept; the classes being resolved are not.  An annotation type the
+ * source does not have is kept as declared but not unrolled, where
+ * reflection would drop it.
+ *
+ * A resolver is safe for use by many threads at once.
+ *
+ * @author David Blevins
+ */
+public final class ClassFileResolver {
+
+    private static final String METATYPE = Metatype.class.getName();
+    private static final String METAROOT = Metaroot.class.getName();
+
+    private static final Object MISSING = new Object();
+
+    private final ClassSource source;
+
+    // annotation types and their holders, or MISSING
+    private final ConcurrentMap<String, Object> files = new ConcurrentHashMap<String, Object>();
+
+    private final ConcurrentMap<String, Boolean> markers = new ConcurrentHashMap<String, Boolean>();
+
+    private final ConcurrentMap<String, AnnotationTypeInfo> types = new ConcurrentHashMap<String, AnnotationTypeInfo>();
+
+    public ClassFileResolver(ClassSource source) {
+        if (source == null) throw new NullPointerException("source");
+        this.source = source;
+    }
+
+    public ClassSource getSource() {
+        return source;
+    }
+
+    /**
+     * Reads the class, or returns null if the source has no such class.
+     * Nothing is cached.
+     */
+    public ClassFile getClassFile(String className) throws IOException {
+        final ByteBuffer bytes = source.read(className);
+        return (bytes == null) ? null : ClassFile.read(bytes);
+    }
+
+    public Map<String, MetaAnnotationInfo> resolve(ClassFile classFile) throws IOException {
+        return resolve(classFile.getAnnotations());
+    }
+
+    public Map<String, MetaAnnotationInfo> resolve(MemberInfo member) throws IOException {
+        return resolve(member.getAnnotations());
+    }
+
+    public List<Map<String, MetaAnnotationInfo>> resolveParameters(MemberInfo member) throws IOException {
+        final List<List<AnnotationInfo>> parameters = member.getParameterAnnotations();
+
+        if (parameters.isEmpty()) return Collections.emptyList();
+
+        final List<Map<String, MetaAnnotationInfo>> resolved = new ArrayList<Map<String, MetaAnnotationInfo>>(parameters.size());
+
+        for (List<AnnotationInfo> annotations : parameters) {
+            resolved.add(resolve(annotations));
+        }
+
+        return Collections.unmodifiableList(resolved);
+    }
+
+    /**
+     * Unrolls the annotations declared on an element, breadth first.  The
+     * map is keyed by annotation type name, in the order found.
+     */
+    public Map<String, MetaAnnotationInfo> resolve(List<AnnotationInfo> declared) throws IOException {
+        if (declared.isEmpty()) return Collections.emptyMap();
+
+        final List<MetaAnnotationInfo> queue = new ArrayList<MetaAnnotationInfo>();
+        final Map<String, MetaAnnotationInfo> found = new LinkedHashMap<String, MetaAnnotationInfo>();
+
+        for (AnnotationInfo annotation : declared) {
+            if (found.containsKey(annotation.getType())) continue;
+
+            final MetaAnnotationInfo metaAnnotation = new MetaAnnotationInfo(annotation, 0);
+            found.put(annotation.getType(), metaAnnotation);
+            queue.add(metaAnnotation);
+        }
+
+        for (int head = 0; head < queue.size(); head++) {
+            final MetaAnnotationInfo current = queue.get(head);
+
+            final AnnotationTypeInfo type = getAnnotationType(current.getType());
+
+            if (!type.isMetaAnnotation()) continue;
+
+            final int depth = current.getDepth() + 1;
+
+            for (AnnotationInfo annotation : getDeclaredMetaAnnotations(type)) {
+                final MetaAnnotationInfo existing = found.get(annotation.getType());
+
+                if (existing == null) {
+
+                    final MetaAnnotationInfo metaAnnotation = new MetaAnnotationInfo(annotation, depth);
+                    found.put(annotation.getType(), metaAnnotation);
+                    queue.add(metaAnnotation);
+
+                } else if (existing.getDepth() == depth) {
+
+                    // They are the same depth and therefore conflicting
+                    existing.addConflict(new MetaAnnotationInfo(annotation, depth));
+
+                }
+
+                // else reached before and higher up, what we have is higher priority
+            }
+        }
+
+        for (MetaAnnotationInfo metaAnnotation : queue) {
+            metaAnnotation.freeze();
+        }
+
+        return Collections.unmodifiableMap(found);
+    }
+
+    /**
+     * True if the type is annotated with a metatype, such as @Metatype
+     */
+    public boolean isMetaAnnotation(String annotationType) throws IOException {
+        return getAnnotationType(annotationType).isMetaAnnotation();
+    }
+
+    /**
+     * The annotation types an element annotated with the type ends up
+     * with, the type itself included
+     */
+    public Set<String> getReachable(String annotationType) throws IOException {
+        final AnnotationTypeInfo type = getAnnotationType(annotationType);
+
+        Set<String> reachable = type.getReachable();
+
+        if (reachable == null) {
+            final AnnotationInfo annotation = new AnnotationInfo(annotationType, Collections.<String, Object>emptyMap());
+            reachable = Collections.unmodifiableSet(new HashSet<String>(resolve(Collections.singletonList(annotation)).keySet()));
+            type.setReachable(reachable);
+        }
+
+        return reachable;
+    }
+
+    /**
+     * The element types of the @Target of the annotation type, or null
+     * if it has none or is not in the source
+     */
+    public Set<ElementType> getTargets(String annotationType) throws IOException {
+        return getAnnotationType(annotationType).getTargets();
+    }
+
+    AnnotationTypeInfo getAnnotationType(String name) throws IOException {
+        final AnnotationTypeInfo existing = types.get(name);
+        if (existing != null) return existing;
+
+        final ClassFile file = file(name);
+        final AnnotationTypeInfo created = new AnnotationTypeInfo(name, file, (file == null) ? null : getMetatype(file));
+
+        final AnnotationTypeInfo raced = types.putIfAbsent(name, created);
+        return (raced != null) ? raced : created;
+    }
+
+    /**
+     * The annotations this meta-annotation carries forward, including those
+     * declared alongside it in its $ holder
+     */
+    List<AnnotationInfo> getDeclaredMetaAnnotations(AnnotationTypeInfo type) throws IOException {
+        List<AnnotationInfo> annotations = type.getDeclaredMetaAnnotations();
+
+        if (annotations == null) {
+            annotations = Collections.unmodifiableList(findDeclaredMetaAnnotations(type));
+            type.setDeclaredMetaAnnotations(annotations);
+        }
+
+        return annotations;
+    }
+
+    private List<AnnotationInfo> findDeclaredMetaAnnotations(AnnotationTypeInfo type) throws IOException {
+        if (!type.isMetaAnnotation()) return Collections.emptyList();
+
+        final Map<String, AnnotationInfo> map = new LinkedHashMap<String, AnnotationInfo>();
+
+        // pull in the annotations declared on this annotation
+
+        for (AnnotationInfo annotation : type.getClassFile().getAnnotations()) {
+            map.put(annotation.getType(), annotation);
+        }
+
+        for (List<AnnotationInfo> annotations : getHolderGroups(type.getName())) {
+            for (AnnotationInfo annotation : annotations) {
+                map.put(annotation.getType(), annotation);
+            }
+        }
+
+        final List<AnnotationInfo> applicable = new ArrayList<AnnotationInfo>(map.size());
+
+        for (AnnotationInfo annotation : map.values()) {
+            final String annotationType = annotation.getType();
+
+            if (annotationType.equals(type.getName())) continue;
+
+            final AnnotationTypeInfo descriptor = getAnnotationType(annotationType);
+
+            // if the chicken is an egg, carry it forward
+            if (descriptor.isMetaAnnotation()) {
+                applicable.add(annotation);
+                continue;
+            }
+
+            if (annotationType.equals(type.getMetatype())) continue;
+
+            // @Target, @Retention, @Documented and friends describe only the annotation type
+            if (descriptor.isAnnotationTypeOnly()) continue;
+
+            applicable.add(annotation);
+        }
+
+        return applicable;
+    }
+
+    /**
+     * The annotation groups of the $ holder that contain the meta-annotation,
+     * in the order MetaAnnotationHolder collects them
+     */
+    private List<List<AnnotationInfo>> getHolderGroups(String type) throws IOException {
+        final ClassFile holder = file(type + "$$");
+
+        if (holder == null) return Collections.emptyList();
+
+        final List<MemberInfo> methods = new ArrayList<MemberInfo>();
+        final List<MemberInfo> constructors = new ArrayList<MemberInfo>();
+
+        for (MemberInfo method : holder.getMethods()) {
+            if (method.isConstructor()) constructors.add(method);
+            else if (!"<clinit>".equals(method.getName())) methods.add(method);
+        }
+
+        final List<List<AnnotationInfo>> groups = new ArrayList<List<AnnotationInfo>>();
+
+        for (MemberInfo method : methods) {
+            groups.addAll(method.getParameterAnnotations());
+        }
+
+        for (MemberInfo constructor : constructors) {
+            groups.addAll(constructor.getParameterAnnotations());
+        }
+
+        for (MemberInfo field : holder.getFields()) {
+            groups.add(field.getAnnotations());
+        }
+
+        for (MemberInfo constructor : constructors) {
+            groups.add(constructor.getAnnotations());
+        }
+
+        for (MemberInfo method : methods) {
+            groups.add(method.getAnnotations());
+        }
+
+        final List<List<AnnotationInfo>> matching = new ArrayList<List<AnnotationInfo>>();
+
+        for (List<AnnotationInfo> annotations : groups) {
+            if (AnnotationInfo.contains(annotations, type)) matching.add(annotations);
+        }
+
+        return matching;
+    }
+
+    private String getMetatype(ClassFile file) throws IOException {
+        for (AnnotationInfo annotation : file.getAnnotations()) {
+            if (isMetatypeAnnotation(annotation.getType())) return annotation.getType();
+        }
+
+        return null;
+    }
+
+    /**
+     * True if the type itself marks meta-annotations, such as @Metatype
+     */
+    private boolean isMetatypeAnnotation(String type) throws IOException {
+        final Boolean existing = markers.get(type);
+        if (existing != null) return existing;
+
+        final boolean marker = findMetatypeAnnotation(type);
+        markers.put(type, marker);
+        return marker;
+    }
+
+    private boolean findMetatypeAnnotation(String type) throws IOException {
+        if (METATYPE.equals(type)) return true;
+
+        final ClassFile file = file(type);
+
+        if (file == null) return false;
+
+        for (AnnotationInfo annotation : file.getAnnotations()) {
+            if (METAROOT.equals(annotation.getType())) return true;
+        }
+
+        if (isSelfAnnotated(file, "Metatype")) return true;
+
+        for (AnnotationInfo annotation : file.getAnnotations()) {
+            final ClassFile annotationType = file(annotation.getType());
+
+            if (annotationType != null && isSelfAnnotated(annotationType, "Metaroot")) return true;
+        }
+
+        return false;
+    }
+
+    private static boolean isSelfAnnotated(ClassFile file, String name) {
+        return AnnotationInfo.contains(file.getAnnotations(), file.getName()) && getSimpleName(file.getName()).equals(name) && validTarget(file);
+    }
+
+    private static boolean validTarget(ClassFile file) {
+        final Set<ElementType> targets = AnnotationTypeInfo.targets(file);
+
+        return targets != null && targets.size() == 1 && targets.contains(ElementType.ANNOTATION_TYPE);
+    }
+
+    private static String getSimpleName(String name) {
+        return name.substring(Math.max(name.lastIndexOf('.'), name.lastIndexOf('$')) + 1);
+    }
+
+    private ClassFile file(String name) throws IOException {
+        Object file = files.get(name);
+
+        if (file == null) {
+            file = getClassFile(name);
+            if (file == null) file = MISSING;
+
+            final Object raced = files.putIfAbsent(name, file);
+            if (raced != null) file = raced;
+        }
+
+        return (file == MISSING) ? null : (ClassFile) file;
+    }
+
+    @Override
+    public String toString() {
+        return "ClassFileResolver{" + source + "}";
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Where the bytes of a class come from, by name and without loading it.
+ *
+ * Sources over files hold them open until closed.
+ *
+ * @author David Blevins
+ */
+public abstract class ClassSource implements Closeable {
+
+    // has no classes of its own, so finds only the bootstrap loader's
+    private static final ClassLoader BOOTSTRAP = new ClassLoader(null) {
+    };
+
+    /**
+     * The bytes of the class file, or null if there is no such class
+     *
+     * @param className the binary name, as Class.getName() gives it
+     */
+    public abstract ByteBuffer read(String className) throws IOException;
+
+    /**
+     * Class files as resources of the loader.  A null loader is the
+     * bootstrap loader, as {@link Class#getClassLoader()} has it, so only
+     * the JDK's own classes are found; it is not the system loader.
+     */
+    public static ClassSource of(final ClassLoader loader) {
+        final ClassLoader resources = (loader == null) ? BOOTSTRAP : loader;
+
+        return new ClassSource() {
+            @Override
+            public ByteBuffer read(String className) throws IOException {
+                final InputStream in = resources.getResourceAsStream(className.replace('.', '/') + ".class");
+
+                if (in == null) return null;
+
+                try {
+                    return ByteBuffer.wrap(ClassFile.readAll(in));
+                } finally {
+                    in.close();
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "ClassSource{" + loader + "}";
+            }
+        };
+    }
+
+    /**
+     * Class files in directories and jars, searched in the order given
+     */
+    public static ClassSource of(File... roots) throws IOException {
+        final List<Archive> archives = new ArrayList<Archive>(roots.length);
+
+        try {
+            for (File root : roots) {
+                archives.add(Archive.open(root));
+            }
+        } catch (IOException e) {
+            for (Archive archive : archives) {
+                archive.close();
+            }
+            throw e;
+        }
+
+        return new Archives(archives);
+    }
+
+    /**
+     * The first of the sources to have the class, all of them closed together
+     */
+    public static ClassSource of(ClassSource... sources) {
+        return new Composite(Arrays.asList(sources.clone()));
+    }
+
+    public void close() throws IOException {
+        // no-op
+    }
+
+    static final class Archives extends ClassSource {
+
+        private final List<Archive> archives;
+
+        Archives(List<Archive> archives) {
+            this.archives = Collections.unmodifiableList(archives);
+        }
+
+        List<Archive> getArchives() {
+            return archives;
+        }
+
+        @Override
+        public ByteBuffer read(String className) throws IOException {
+            final String resource = Archive.resource(className);
+
+            for (Archive archive : archives) {
+                final ByteBuffer bytes = archive.read(resource);
+                if (bytes != null) return bytes;
+            }
+
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+
+            for (Archive archive : archives) {
+                try {
+                    archive.close();
+                } catch (IOException e) {
+                    if (failure == null) failure = e;
+                }
+            }
+
+            if (failure != null) throw failure;
+        }
+
+        @Override
+        public String toString() {
+            return "ClassSource" + archives;
+        }
+    }
+
+    private static final class Composite extends ClassSource {
+
+        private final List<ClassSource> sources;
+
+        private Composite(List<ClassSource> sources) {
+            this.sources = sources;
+        }
+
+        @Override
+        public ByteBuffer read(String className) throws IOException {
+            for (ClassSource source : sources) {
+                final ByteBuffer bytes = source.read(className);
+                if (bytes != null) return bytes;
+            }
+
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+
+            for (ClassSource source : sources) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    if (failure == null) failure = e;
+                }
+            }
+
+            if (failure != null) throw failure;
+        }
+
+        @Override
+        public String toString() {
+            return "ClassSource" + sources;
+        }
+    }
+}
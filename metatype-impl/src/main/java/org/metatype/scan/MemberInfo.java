@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import java.util.List;
+
+/**
+ * A field, method or constructor of a {@link ClassFile}
+ *
+ * @author David Blevins
+ */
+public final class MemberInfo {
+
+    private final boolean field;
+    private final int access;
+    private final String name;
+    private final String descriptor;
+    private final List<AnnotationInfo> annotations;
+    private final List<List<AnnotationInfo>> parameterAnnotations;
+
+    MemberInfo(boolean field, int access, String name, String descriptor, List<AnnotationInfo> annotations, List<List<AnnotationInfo>> parameterAnnotations) {
+        this.field = field;
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+        this.annotations = annotations;
+        this.parameterAnnotations = parameterAnnotations;
+    }
+
+    public boolean isField() {
+        return field;
+    }
+
+    public boolean isConstructor() {
+        return !field && "<init>".equals(name);
+    }
+
+    public int getAccess() {
+        return access;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The type descriptor, such as (Ljava/lang/String;)V
+     */
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public List<AnnotationInfo> getAnnotations() {
+        return annotations;
+    }
+
+    /**
+     * One list per parameter that the class file records annotations for,
+     * empty for fields.  Like Method.getParameterAnnotations() for most
+     * methods, but the compiler may leave out synthetic parameters.
+     */
+    public List<List<AnnotationInfo>> getParameterAnnotations() {
+        return parameterAnnotations;
+    }
+
+    @Override
+    public String toString() {
+        return name + (field ? " " : "") + descriptor;
+    }
+}
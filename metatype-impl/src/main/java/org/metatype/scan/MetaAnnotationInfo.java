@@ -0,0 +1,70 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An annotation found by unrolling class files, with the depth it was
+ * found at and any others of its type found at that same depth.  The
+ * counterpart of {@link org.metatype.MetaAnnotation}.
+ *
+ * @author David Blevins
+ */
+public final class MetaAnnotationInfo {
+
+    private final AnnotationInfo annotation;
+    private final int depth;
+    private List<MetaAnnotationInfo> conflicts = Collections.emptyList();
+
+    MetaAnnotationInfo(AnnotationInfo annotation, int depth) {
+        this.annotation = annotation;
+        this.depth = depth;
+    }
+
+    public AnnotationInfo get() {
+        return annotation;
+    }
+
+    public String getType() {
+        return annotation.getType();
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public List<MetaAnnotationInfo> getConflicts() {
+        return conflicts;
+    }
+
+    void addConflict(MetaAnnotationInfo conflict) {
+        if (conflicts.isEmpty()) conflicts = new ArrayList<MetaAnnotationInfo>(1);
+        conflicts.add(conflict);
+    }
+
+    MetaAnnotationInfo freeze() {
+        if (!conflicts.isEmpty()) conflicts = Collections.unmodifiableList(conflicts);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return annotation + " at depth " + depth;
+    }
+}
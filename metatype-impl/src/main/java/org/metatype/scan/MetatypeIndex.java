@@ -0,0 +1,654 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The results of a {@link MetatypeScanner}, saved to a file that a later
+ * JVM maps and queries in place, without scanning or unrolling again.
+ *
+ * <pre>
+ * MetatypeScanner.interestedIn(Schedule.class).index(new File("metatype.idx"), classes);
+ *
+ * final MetatypeIndex index = MetatypeIndex.open(new File("metatype.idx"));
+ * if (index.isCurrent(ClassSource.of(loader))) {
+ *     for (ScannedElement element : index.getElementsAnnotatedWith(Schedule.class.getName())) ...
+ * }
+ * </pre>
+ *
+ * The mapping is read only, so JVMs on one host opening the same index
+ * share its pages.  Only the records asked for are decoded.
+ *
+ * A build can embed the index of an artifact's classes in the artifact
+ * itself, as {@link #RESOURCE}, for {@link #discover} to find at runtime.
+ *
+ * The index records a fingerprint of every annotation type the scan read
+ * a definition of, or found missing.  If one of them has changed, its
+ * unrolled annotations may have too, and {@link #isCurrent} says so.
+ * The JDK's own annotation types, which can never be metatypes, are left
+ * out, so an index built on one JDK stays current on another.
+ *
+ * An index discovered in a directory, where an IDE or an incremental
+ * build may recompile classes without writing it again, only vouches for
+ * the classes whose files are older than it; see {@link #isCurrent(String)}.
+ * A jar is built whole, so its index vouches for all of its classes.
+ *
+ * All numbers are big endian.  The layout is
+ *
+ * <pre>
+ * header    u4 magic, u4 version, then the u4 offsets of the strings,
+ *           types, classes and elements tables and of the interest
+ * strings   u4 count, then the u4 offset of each string, a varint
+ *           length and that many bytes of UTF-8
+ * types     u4 count, then in name order a u4 name, u8 fingerprint,
+ *           zero if missing and minus one if not checked, and u4 offset
+ *           of the postings, a varint count and the ids of the elements
+ *           annotated with the type as varint deltas
+ * classes   u4 count, then in name order a u4 name, u4 first element
+ *           and u4 element count
+ * elements  u4 count, then the u4 offset of each element's record
+ * interest  varint count, then the varint names
+ * </pre>
+ *
+ * An element record is, all varints, its kind, location and class name,
+ * then its member's name plus one and descriptor and access, or zero for
+ * a class, its parameter plus one, and its annotations, each with its
+ * depth, the annotation and the annotations conflicting with it.  An
+ * annotation is its type and values, tagged as in a class file.  Names
+ * are indexes into the strings.
+ *
+ * @author David Blevins
+ */
+public final class MetatypeIndex {
+
+    /**
+     * Where an artifact carries the index of its own classes
+     */
+    public static final String RESOURCE = "META-INF/metatype.idx";
+
+    static final int MAGIC = 0x4D544958;
+    static final int VERSION = 1;
+
+    static final int HEADER = 28;
+    static final int TYPE_ENTRY = 16;
+    static final int CLASS_ENTRY = 12;
+
+    // the fingerprint of a type whose definition is not checked
+    static final long UNCHECKED = -1;
+
+    static final Comparator<ScannedElement> BY_CLASS_NAME = new Comparator<ScannedElement>() {
+        @Override
+        public int compare(ScannedElement a, ScannedElement b) {
+            return a.getClassName().compareTo(b.getClassName());
+        }
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ScannedElement.Kind[] KINDS = ScannedElement.Kind.values();
+
+    private final ByteBuffer index;
+
+    // the jar or directory indexed, if known
+    private final File location;
+
+    // when the index in a directory was last written, as it was mapped
+    private final long written;
+
+    private final int strings;
+    private final int types;
+    private final int classes;
+    private final int elements;
+    private final int interest;
+
+    // decoded strings, safe to publish racily as strings are immutable
+    private final String[] decoded;
+
+    private MetatypeIndex(ByteBuffer index, File location, long written) throws IOException {
+        this.index = index.duplicate();
+        this.location = location;
+        this.written = written;
+
+        try {
+            if (this.index.getInt(0) != MAGIC) throw new IOException("Not a metatype index");
+
+            final int version = this.index.getInt(4);
+            if (version != VERSION) throw new IOException("Unsupported metatype index version " + version);
+
+            this.strings = this.index.getInt(8);
+            this.types = this.index.getInt(12);
+            this.classes = this.index.getInt(16);
+            this.elements = this.index.getInt(20);
+            this.interest = this.index.getInt(24);
+
+            this.decoded = new String[this.index.getInt(strings)];
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt metatype index", e);
+        }
+    }
+
+    /**
+     * Maps the index file read only
+     */
+    public static MetatypeIndex open(File file) throws IOException {
+        return new MetatypeIndex(map(file), null, 0);
+    }
+
+    /**
+     * An index already in memory
+     */
+    public static MetatypeIndex read(ByteBuffer index) throws IOException {
+        return new MetatypeIndex(index, null, 0);
+    }
+
+    /**
+     * The indexes embedded as {@link #RESOURCE} in the jars and directories
+     * of the loader, the system loader if null.  One in a jar or directory
+     * on disk knows its location.  It is mapped in place if the jar stores
+     * it uncompressed, and otherwise inflated into memory.
+     */
+    public static List<MetatypeIndex> discover(ClassLoader loader) throws IOException {
+        final Enumeration<URL> resources = (loader == null) ? ClassLoader.getSystemResources(RESOURCE) : loader.getResources(RESOURCE);
+
+        final List<MetatypeIndex> indexes = new ArrayList<MetatypeIndex>();
+
+        while (resources.hasMoreElements()) {
+            indexes.add(load(resources.nextElement()));
+        }
+
+        return Collections.unmodifiableList(indexes);
+    }
+
+    private static MetatypeIndex load(URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            final File file = toFile(url);
+
+            // before mapping, so that a rewrite in between errs towards stale
+            final long written = file.lastModified();
+
+            // the directory that META-INF is in
+            return new MetatypeIndex(map(file), file.getParentFile().getParentFile(), written);
+        }
+
+        final String spec = url.getFile();
+        final int separator = spec.indexOf("!/");
+
+        if ("jar".equals(url.getProtocol()) && separator > 0 && spec.indexOf("!/", separator + 2) < 0) {
+            final URL jarUrl = new URL(spec.substring(0, separator));
+
+            if ("file".equals(jarUrl.getProtocol())) {
+                final File jar = toFile(jarUrl);
+                final ZipArchive zip = ZipArchive.map(jar);
+                final ZipArchive.Entry entry = zip.getEntry(spec.substring(separator + 2));
+
+                if (entry != null) return new MetatypeIndex(zip.read(entry), jar, 0);
+            }
+        }
+
+        // anywhere else, such as a jar in a jar
+        final InputStream in = url.openStream();
+        try {
+            return new MetatypeIndex(ByteBuffer.wrap(ClassFile.readAll(in)), null, 0);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Index too large to map: " + file.getAbsolutePath());
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            throw new IOException("Cannot open index " + file.getAbsolutePath() + ", " + e.getMessage(), e);
+        } finally {
+            raf.close();
+        }
+    }
+
+    static File toFile(URL url) {
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return new File(url.getPath());
+        } catch (IllegalArgumentException e) {
+            return new File(url.getPath());
+        }
+    }
+
+    /**
+     * The jar or directory whose classes are indexed, or null if the index
+     * was not discovered in one
+     */
+    public File getLocation() {
+        return location;
+    }
+
+    /**
+     * The annotation types the index was built for.  Elements with none of
+     * them are not in the index.
+     */
+    public Set<String> getInterest() {
+        try {
+            final Cursor cursor = new Cursor(interest);
+
+            final Set<String> names = new LinkedHashSet<String>();
+
+            for (int i = cursor.varint(); i > 0; i--) {
+                names.add(cursor.string());
+            }
+
+            return Collections.unmodifiableSet(names);
+        } catch (IndexOutOfBoundsException e) {
+            throw corrupt(e);
+        }
+    }
+
+    /**
+     * The fingerprint of each annotation type the index depends on, zero
+     * for one that was missing
+     */
+    public Map<String, Long> getFingerprints() {
+        try {
+            final Map<String, Long> fingerprints = new LinkedHashMap<String, Long>();
+
+            final int count = index.getInt(types);
+
+            for (int i = 0; i < count; i++) {
+                final int entry = types + 4 + i * TYPE_ENTRY;
+                final long fingerprint = index.getLong(entry + 4);
+
+                if (fingerprint != UNCHECKED) fingerprints.put(string(index.getInt(entry)), fingerprint);
+            }
+
+            return Collections.unmodifiableMap(fingerprints);
+        } catch (IndexOutOfBoundsException e) {
+            throw corrupt(e);
+        }
+    }
+
+    /**
+     * True if every annotation type the index depends on has the same
+     * definition in the source, or is still missing from it
+     */
+    public boolean isCurrent(ClassSource source) throws IOException {
+        for (Map.Entry<String, Long> entry : getFingerprints().entrySet()) {
+            if (fingerprint(source.read(entry.getKey())) != entry.getValue()) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * False if the class may have changed since the index was written, as
+     * its class file in the indexed directory is missing or no older than
+     * the index.  Always true of an index in a jar, or of unknown location.
+     */
+    public boolean isCurrent(String className) {
+        if (written == 0 || !location.isDirectory()) return true;
+
+        final File classFile = new File(location, className.replace('.', '/') + ".class");
+        final long modified = classFile.lastModified();
+
+        return modified != 0 && modified < written;
+    }
+
+    /**
+     * The names of the classes with elements in the index, in order
+     */
+    public List<String> getClassNames() {
+        try {
+            final int count = index.getInt(classes);
+
+            final List<String> names = new ArrayList<String>(count);
+
+            for (int i = 0; i < count; i++) {
+                names.add(string(index.getInt(classes + 4 + i * CLASS_ENTRY)));
+            }
+
+            return Collections.unmodifiableList(names);
+        } catch (IndexOutOfBoundsException e) {
+            throw corrupt(e);
+        }
+    }
+
+    /**
+     * The class and those of its members and parameters that are in the
+     * index, in class file order
+     */
+    public List<ScannedElement> getElements(String className) {
+        try {
+            final int entry = find(classes, CLASS_ENTRY, className);
+
+            if (entry < 0) return Collections.emptyList();
+
+            final int first = index.getInt(entry + 4);
+            final int count = index.getInt(entry + 8);
+
+            final List<ScannedElement> found = new ArrayList<ScannedElement>(count);
+
+            for (int id = first; id < first + count; id++) {
+                found.add(element(id));
+            }
+
+            return Collections.unmodifiableList(found);
+        } catch (IndexOutOfBoundsException e) {
+            throw corrupt(e);
+        }
+    }
+
+    /**
+     * The elements annotated with the type, declared or meta, in class
+     * name order
+     */
+    public List<ScannedElement> getElementsAnnotatedWith(String annotationType) {
+        try {
+            final int entry = find(types, TYPE_ENTRY, annotationType);
+
+            if (entry < 0) return Collections.emptyList();
+
+            final Cursor postings = new Cursor(index.getInt(entry + 12));
+
+            final int count = postings.varint();
+
+            final List<ScannedElement> found = new ArrayList<ScannedElement>(count);
+
+            int id = 0;
+            for (int i = 0; i < count; i++) {
+                id += postings.varint();
+                found.add(element(id));
+            }
+
+            return Collections.unmodifiableList(found);
+        } catch (IndexOutOfBoundsException e) {
+            throw corrupt(e);
+        }
+    }
+
+    /**
+     * Every element in the index, in class name order
+     */
+    public List<ScannedElement> getElements() {
+        try {
+            final int count = index.getInt(elements);
+
+            final List<ScannedElement> found = new ArrayList<ScannedElement>(count);
+
+            for (int id = 0; id < count; id++) {
+                found.add(element(id));
+            }
+
+            return Collections.unmodifiableList(found);
+        } catch (IndexOutOfBoundsException e) {
+            throw corrupt(e);
+        }
+    }
+
+    /**
+     * The 64-bit FNV-1a hash of a class file, or zero for a missing one.
+     * Recompiling an unchanged annotation type with another compiler may
+     * change it, which only costs a needless rescan.
+     */
+    static long fingerprint(ByteBuffer classFile) {
+        if (classFile == null) return 0;
+
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = classFile.position(); i < classFile.limit(); i++) {
+            hash ^= classFile.get(i) & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+
+        // zero is reserved for missing, and minus one for unchecked
+        return (hash == 0 || hash == UNCHECKED) ? 1 : hash;
+    }
+
+    /**
+     * Binary search of a table sorted by the name in the first u4 of each
+     * entry, the position of the entry or -1
+     */
+    private int find(int table, int entrySize, String name) {
+        int low = 0;
+        int high = index.getInt(table) - 1;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int entry = table + 4 + middle * entrySize;
+
+            final int comparison = string(index.getInt(entry)).compareTo(name);
+
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return entry;
+            }
+        }
+
+        return -1;
+    }
+
+    private ScannedElement element(int id) {
+        final Cursor cursor = new Cursor(index.getInt(elements + 4 + id * 4));
+
+        final ScannedElement.Kind kind = KINDS[cursor.varint()];
+        final File location = new File(cursor.string());
+        final String className = cursor.string();
+
+        final int memberName = cursor.varint();
+
+        final String name;
+        final String descriptor;
+        final int access;
+
+        if (memberName == 0) {
+            name = null;
+            descriptor = null;
+            access = 0;
+        } else {
+            name = string(memberName - 1);
+            descriptor = cursor.string();
+            access = cursor.varint();
+        }
+
+        final int parameter = cursor.varint() - 1;
+
+        final Map<String, MetaAnnotationInfo> annotations = new LinkedHashMap<String, MetaAnnotationInfo>();
+        final List<AnnotationInfo> declared = new ArrayList<AnnotationInfo>();
+
+        for (int i = cursor.varint(); i > 0; i--) {
+            final int depth = cursor.varint();
+            final MetaAnnotationInfo metaAnnotation = new MetaAnnotationInfo(cursor.annotation(), depth);
+
+            for (int j = cursor.varint(); j > 0; j--) {
+                metaAnnotation.addConflict(new MetaAnnotationInfo(cursor.annotation(), depth));
+            }
+
+            annotations.put(metaAnnotation.getType(), metaAnnotation.freeze());
+
+            if (depth == 0) declared.add(metaAnnotation.get());
+        }
+
+        // the member only has the annotations recorded for the element
+        MemberInfo member = null;
+
+        if (name != null) {
+            final List<AnnotationInfo> memberAnnotations = (parameter < 0) ? Collections.unmodifiableList(declared) : Collections.<AnnotationInfo>emptyList();
+            member = new MemberInfo(kind == ScannedElement.Kind.FIELD, access, name, descriptor, memberAnnotations, Collections.<List<AnnotationInfo>>emptyList());
+        }
+
+        return new ScannedElement(kind, location, className, member, parameter, Collections.unmodifiableMap(annotations));
+    }
+
+    private String string(int id) {
+        String string = decoded[id];
+
+        if (string == null) {
+            final Cursor cursor = new Cursor(index.getInt(strings + 4 + id * 4));
+
+            final int length = cursor.varint();
+
+            final byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = index.get(cursor.position++);
+            }
+
+            string = new String(bytes, UTF_8);
+            decoded[id] = string;
+        }
+
+        return string;
+    }
+
+    @Override
+    public String toString() {
+        return "MetatypeIndex{" + ((location == null) ? "" : location) + "}";
+    }
+
+    private static IllegalStateException corrupt(IndexOutOfBoundsException e) {
+        return new IllegalStateException("Corrupt metatype index", e);
+    }
+
+    /**
+     * Reads forward from a position with absolute gets, so any number of
+     * threads can read the index at once
+     */
+    private final class Cursor {
+
+        private int position;
+
+        private Cursor(int position) {
+            this.position = position;
+        }
+
+        int varint() {
+            return (int) varlong();
+        }
+
+        long varlong() {
+            long value = 0;
+
+            for (int shift = 0; ; shift += 7) {
+                final byte b = index.get(position++);
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+
+        String string() {
+            return MetatypeIndex.this.string(varint());
+        }
+
+        AnnotationInfo annotation() {
+            final String type = string();
+
+            final int count = varint();
+
+            if (count == 0) return new AnnotationInfo(type, Collections.<String, Object>emptyMap());
+
+            final Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+            for (int i = 0; i < count; i++) {
+                final String name = string();
+                values.put(name, value());
+            }
+
+            return new AnnotationInfo(type, Collections.unmodifiableMap(values));
+        }
+
+        private Object value() {
+            final int tag = index.get(position++);
+
+            switch (tag) {
+                case 'B':
+                    return (byte) unzigzag(varint());
+                case 'C':
+                    return (char) varint();
+                case 'S':
+                    return (short) unzigzag(varint());
+                case 'Z':
+                    return index.get(position++) != 0;
+                case 'I':
+                    return unzigzag(varint());
+                case 'J':
+                    return unzigzag(varlong());
+                case 'F': {
+                    final float value = index.getFloat(position);
+                    position += 4;
+                    return value;
+                }
+                case 'D': {
+                    final double value = index.getDouble(position);
+                    position += 8;
+                    return value;
+                }
+                case 's':
+                    return string();
+                case 'e': {
+                    final String type = string();
+                    return new AnnotationInfo.EnumConstant(type, string());
+                }
+                case 'c':
+                    return new AnnotationInfo.ClassLiteral(string());
+                case '@':
+                    return annotation();
+                case '[': {
+                    final int count = varint();
+                    final List<Object> list = new ArrayList<Object>(count);
+
+                    for (int i = 0; i < count; i++) {
+                        list.add(value());
+                    }
+
+                    return Collections.unmodifiableList(list);
+                }
+                default:
+                    throw new IllegalStateException("Corrupt metatype index, unknown value tag " + tag);
+            }
+        }
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
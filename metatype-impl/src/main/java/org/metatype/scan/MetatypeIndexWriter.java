@@ -0,0 +1,411 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Writes the format {@link MetatypeIndex} reads, described there.
+ *
+ * @author David Blevins
+ */
+final class MetatypeIndexWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+
+    private Output out = new Output();
+
+    private MetatypeIndexWriter() {
+    }
+
+    /**
+     * Writes the elements, and fingerprints of the annotation types read
+     * from the source, to a temporary file that then replaces the index,
+     * so that a JVM mapping the index never sees it half written
+     */
+    static void write(File index, Set<String> interest, List<ScannedElement> elements, Collection<String> annotationTypes, ClassSource source) throws IOException {
+        final Set<String> types = new TreeSet<String>(annotationTypes);
+        types.addAll(interest);
+
+        for (ScannedElement element : elements) {
+            types.addAll(element.getAnnotations().keySet());
+        }
+
+        final Map<String, Long> fingerprints = new TreeMap<String, Long>();
+
+        for (String type : types) {
+            // never a metatype, so what it implies cannot change with the JDK
+            if (type.startsWith("java.")) continue;
+
+            fingerprints.put(type, MetatypeIndex.fingerprint(source.read(type)));
+        }
+
+        final byte[] bytes = new MetatypeIndexWriter().toBytes(interest, elements, fingerprints);
+
+        final File directory = index.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Cannot create directory " + directory);
+
+        final File temp = File.createTempFile(index.getName(), ".tmp", directory);
+
+        try {
+            final OutputStream stream = new FileOutputStream(temp);
+            try {
+                stream.write(bytes);
+            } finally {
+                stream.close();
+            }
+
+            try {
+                Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private byte[] toBytes(Set<String> interest, List<ScannedElement> elements, Map<String, Long> fingerprints) {
+
+        // the elements of each class together, classes and types in name order
+
+        final Map<String, List<Integer>> classes = new TreeMap<String, List<Integer>>();
+        final Map<String, List<Integer>> postings = new HashMap<String, List<Integer>>();
+
+        final List<ScannedElement> sorted = new ArrayList<ScannedElement>(elements);
+        Collections.sort(sorted, MetatypeIndex.BY_CLASS_NAME);
+
+        for (int id = 0; id < sorted.size(); id++) {
+            final ScannedElement element = sorted.get(id);
+
+            add(classes, element.getClassName(), id);
+
+            for (String type : element.getAnnotations().keySet()) {
+                add(postings, type, id);
+            }
+        }
+
+        final Set<String> types = new TreeSet<String>(fingerprints.keySet());
+        types.addAll(postings.keySet());
+
+        for (String type : types) {
+            string(type);
+        }
+
+        // the records first, so that the string table is complete
+
+        final int[] records = new int[sorted.size()];
+
+        for (int id = 0; id < sorted.size(); id++) {
+            records[id] = out.size();
+            element(sorted.get(id));
+        }
+
+        final int[] typePostings = new int[types.size()];
+        int t = 0;
+
+        for (String type : types) {
+            typePostings[t++] = out.size();
+
+            final List<Integer> ids = postings.get(type);
+
+            if (ids == null) {
+                out.varint(0);
+                continue;
+            }
+
+            out.varint(ids.size());
+
+            int previous = 0;
+            for (int id : ids) {
+                out.varint(id - previous);
+                previous = id;
+            }
+        }
+
+        final int interestRecord = out.size();
+        final List<String> sortedInterest = new ArrayList<String>(new TreeSet<String>(interest));
+        out.varint(sortedInterest.size());
+        for (String type : sortedInterest) {
+            out.varint(string(type));
+        }
+
+        final byte[] body = out.toByteArray();
+
+        // then the fixed width tables that point into the body
+
+        out = new Output();
+
+        final int[] stringOffsets = new int[strings.size()];
+        final Output stringData = new Output();
+        int s = 0;
+
+        for (String string : strings.keySet()) {
+            stringOffsets[s++] = stringData.size();
+
+            final byte[] utf8 = string.getBytes(UTF_8);
+            stringData.varint(utf8.length);
+            stringData.bytes(utf8);
+        }
+
+        final int stringsTable = MetatypeIndex.HEADER;
+        final int typesTable = stringsTable + 4 + 4 * strings.size();
+        final int classesTable = typesTable + 4 + MetatypeIndex.TYPE_ENTRY * types.size();
+        final int elementsTable = classesTable + 4 + MetatypeIndex.CLASS_ENTRY * classes.size();
+        final int stringsData = elementsTable + 4 + 4 * records.length;
+        final int bodyData = stringsData + stringData.size();
+
+        out.u4(MetatypeIndex.MAGIC);
+        out.u4(MetatypeIndex.VERSION);
+        out.u4(stringsTable);
+        out.u4(typesTable);
+        out.u4(classesTable);
+        out.u4(elementsTable);
+        out.u4(bodyData + interestRecord);
+
+        out.u4(strings.size());
+        for (int offset : stringOffsets) {
+            out.u4(stringsData + offset);
+        }
+
+        out.u4(types.size());
+        t = 0;
+        for (String type : types) {
+            final Long fingerprint = fingerprints.get(type);
+
+            out.u4(strings.get(type));
+            out.u8((fingerprint == null) ? MetatypeIndex.UNCHECKED : fingerprint);
+            out.u4(bodyData + typePostings[t++]);
+        }
+
+        out.u4(classes.size());
+        for (Map.Entry<String, List<Integer>> entry : classes.entrySet()) {
+            out.u4(strings.get(entry.getKey()));
+            out.u4(entry.getValue().get(0));
+            out.u4(entry.getValue().size());
+        }
+
+        out.u4(records.length);
+        for (int record : records) {
+            out.u4(bodyData + record);
+        }
+
+        out.bytes(stringData.toByteArray());
+        out.bytes(body);
+
+        return out.toByteArray();
+    }
+
+    private static void add(Map<String, List<Integer>> map, String key, int id) {
+        List<Integer> ids = map.get(key);
+
+        if (ids == null) {
+            ids = new ArrayList<Integer>();
+            map.put(key, ids);
+        }
+
+        ids.add(id);
+    }
+
+    private void element(ScannedElement element) {
+        final MemberInfo member = element.getMember();
+
+        out.varint(element.getKind().ordinal());
+        out.varint(string(element.getLocation().getPath()));
+        out.varint(string(element.getClassName()));
+
+        if (member == null) {
+            out.varint(0);
+        } else {
+            out.varint(string(member.getName()) + 1);
+            out.varint(string(member.getDescriptor()));
+            out.varint(member.getAccess());
+        }
+
+        out.varint(element.getParameter() + 1);
+
+        out.varint(element.getAnnotations().size());
+        for (MetaAnnotationInfo metaAnnotation : element.getAnnotations().values()) {
+            out.varint(metaAnnotation.getDepth());
+            annotation(metaAnnotation.get());
+
+            out.varint(metaAnnotation.getConflicts().size());
+            for (MetaAnnotationInfo conflict : metaAnnotation.getConflicts()) {
+                annotation(conflict.get());
+            }
+        }
+    }
+
+    private void annotation(AnnotationInfo annotation) {
+        out.varint(string(annotation.getType()));
+
+        out.varint(annotation.getValues().size());
+        for (Map.Entry<String, Object> entry : annotation.getValues().entrySet()) {
+            out.varint(string(entry.getKey()));
+            value(entry.getValue());
+        }
+    }
+
+    /**
+     * Tagged as in a class file, numbers as zigzag varints
+     */
+    private void value(Object value) {
+        if (value instanceof Byte) {
+            out.u1('B');
+            out.varint(zigzag((Byte) value));
+        } else if (value instanceof Character) {
+            out.u1('C');
+            out.varint((Character) value);
+        } else if (value instanceof Short) {
+            out.u1('S');
+            out.varint(zigzag((Short) value));
+        } else if (value instanceof Boolean) {
+            out.u1('Z');
+            out.u1((Boolean) value ? 1 : 0);
+        } else if (value instanceof Integer) {
+            out.u1('I');
+            out.varint(zigzag((Integer) value));
+        } else if (value instanceof Long) {
+            out.u1('J');
+            out.varlong(zigzag((Long) value));
+        } else if (value instanceof Float) {
+            out.u1('F');
+            out.u4(Float.floatToRawIntBits((Float) value));
+        } else if (value instanceof Double) {
+            out.u1('D');
+            out.u8(Double.doubleToRawLongBits((Double) value));
+        } else if (value instanceof String) {
+            out.u1('s');
+            out.varint(string((String) value));
+        } else if (value instanceof AnnotationInfo.EnumConstant) {
+            final AnnotationInfo.EnumConstant constant = (AnnotationInfo.EnumConstant) value;
+            out.u1('e');
+            out.varint(string(constant.getType()));
+            out.varint(string(constant.getName()));
+        } else if (value instanceof AnnotationInfo.ClassLiteral) {
+            out.u1('c');
+            out.varint(string(((AnnotationInfo.ClassLiteral) value).getName()));
+        } else if (value instanceof AnnotationInfo) {
+            out.u1('@');
+            annotation((AnnotationInfo) value);
+        } else if (value instanceof List) {
+            final List<?> list = (List<?>) value;
+            out.u1('[');
+            out.varint(list.size());
+            for (Object item : list) {
+                value(item);
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown annotation value " + value);
+        }
+    }
+
+    private int string(String string) {
+        Integer id = strings.get(string);
+
+        if (id == null) {
+            id = strings.size();
+            strings.put(string, id);
+        }
+
+        return id;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * A growable big endian buffer
+     */
+    private static final class Output {
+
+        private byte[] bytes = new byte[4096];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        void u1(int value) {
+            ensure(1);
+            bytes[size++] = (byte) value;
+        }
+
+        void u4(int value) {
+            ensure(4);
+            ByteBuffer.wrap(bytes, size, 4).putInt(value);
+            size += 4;
+        }
+
+        void u8(long value) {
+            ensure(8);
+            ByteBuffer.wrap(bytes, size, 8).putLong(value);
+            size += 8;
+        }
+
+        void varint(int value) {
+            varlong(value & 0xFFFFFFFFL);
+        }
+
+        void varlong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                u1((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            u1((int) value);
+        }
+
+        void bytes(byte[] data) {
+            ensure(data.length);
+            System.arraycopy(data, 0, bytes, size, data.length);
+            size += data.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensure(int count) {
+            if (size + count > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + count));
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the classes, members and parameters whose unrolled annotations
+ * include any of the types of interest, straight from directories and
+ * jars, without loading a class.
+ *
+ * <pre>
+ * final List&lt;ScannedElement&gt; scheduled = MetatypeScanner.interestedIn(Schedule.class)
+ *         .withLibraries(ClassSource.of(serverLoader))
+ *         .scan(new File("WEB-INF/classes"), new File("WEB-INF/lib/orders.jar"));
+ * </pre>
+ *
+ * finds every method annotated @Daily or @Hourly, or anything else that
+ * resolves to a @Schedule.
+ *
+ * The roots are walked with fork-join, one task per directory and per
+ * slice of a jar's entries.  Jars are memory mapped and read in place,
+ * along with any jars or wars stored inside them.  Annotation types are
+ * read from the roots first and then from the libraries, by default the
+ * system classloader.
+ * A class none of whose declared annotation types can lead to an
+ * interesting one is never unrolled.
+ *
+ * The results are ordered by class name, and then in class file order.
+ *
+ * @author David Blevins
+ */
+public final class MetatypeScanner {
+
+    // jar entries per task
+    private static final int SLICE = 64;
+
+    private final Set<String> interest;
+    private final ClassSource libraries;
+    private final int parallelism;
+
+    private MetatypeScanner(Set<String> interest, ClassSource libraries, int parallelism) {
+        if (interest.isEmpty()) throw new IllegalArgumentException("No annotation types of interest");
+        if (libraries == null) throw new NullPointerException("libraries");
+        if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+
+        this.interest = interest;
+        this.libraries = libraries;
+        this.parallelism = parallelism;
+    }
+
+    public static MetatypeScanner interestedIn(Class<? extends Annotation>... annotationTypes) {
+        final String[] names = new String[annotationTypes.length];
+
+        for (int i = 0; i < annotationTypes.length; i++) {
+            names[i] = annotationTypes[i].getName();
+        }
+
+        return interestedIn(names);
+    }
+
+    public static MetatypeScanner interestedIn(String... annotationTypes) {
+        final Set<String> interest = new HashSet<String>();
+        Collections.addAll(interest, annotationTypes);
+
+        return new MetatypeScanner(Collections.unmodifiableSet(interest), ClassSource.of(ClassLoader.getSystemClassLoader()), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * A scanner like this one that also reads annotation types from the
+     * source, for those not in the scanned roots.  The source is not closed.
+     */
+    public MetatypeScanner withLibraries(ClassSource libraries) {
+        return new MetatypeScanner(interest, libraries, parallelism);
+    }
+
+    /**
+     * A scanner like this one that uses at most that many threads
+     */
+    public MetatypeScanner withParallelism(int parallelism) {
+        return new MetatypeScanner(interest, libraries, parallelism);
+    }
+
+    public Set<String> getInterest() {
+        return interest;
+    }
+
+    public List<ScannedElement> scan(File... roots) throws IOException {
+        final ClassSource.Archives archives = (ClassSource.Archives) ClassSource.of(roots);
+
+        try {
+            return scan(archives.getArchives(), new ClassFileResolver(ClassSource.of(archives, libraries))).results();
+        } finally {
+            archives.close();
+        }
+    }
+
+    /**
+     * Scans the roots, resolving annotation types with the resolver, whose
+     * caches then carry over to other scans
+     */
+    public List<ScannedElement> scan(ClassFileResolver resolver, File... roots) throws IOException {
+        final ClassSource.Archives archives = (ClassSource.Archives) ClassSource.of(roots);
+
+        try {
+            return scan(archives.getArchives(), resolver).results();
+        } finally {
+            archives.close();
+        }
+    }
+
+    /**
+     * Scans the roots and saves what is found to the index file, along
+     * with fingerprints of every annotation type the scan read, so that
+     * a later JVM can use the index instead of scanning
+     *
+     * @see MetatypeIndex
+     */
+    public MetatypeIndex index(File index, File... roots) throws IOException {
+        final ClassSource.Archives archives = (ClassSource.Archives) ClassSource.of(roots);
+
+        try {
+            final ClassSource source = ClassSource.of(archives, libraries);
+            final Scan scan = scan(archives.getArchives(), new ClassFileResolver(source));
+
+            MetatypeIndexWriter.write(index, interest, scan.results(), scan.annotationTypes(), source);
+        } finally {
+            archives.close();
+        }
+
+        return MetatypeIndex.open(index);
+    }
+
+    private Scan scan(List<Archive> archives, ClassFileResolver resolver) throws IOException {
+        final Scan scan = new Scan(resolver);
+
+        final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+
+        for (Archive archive : archives) {
+            if (archive instanceof Archive.Jar) {
+                add(tasks, scan, (Archive.Jar) archive);
+            } else {
+                tasks.add(new DirectoryTask(scan, archive, archive.getFile(), ""));
+            }
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } catch (ScanFailure e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+
+        return scan;
+    }
+
+    private static void add(List<RecursiveAction> tasks, Scan scan, Archive.Jar jar) {
+        tasks.add(new JarTask(scan, jar, jar.getClassEntries()));
+
+        for (Archive.Nested nested : jar.getNestedJars()) {
+            tasks.add(new NestedJarTask(scan, nested));
+        }
+    }
+
+    /**
+     * The state of one scan, shared by its tasks
+     */
+    private final class Scan {
+
+        private final ClassFileResolver resolver;
+
+        // whether an annotation type can lead to one of interest
+        private final ConcurrentMap<String, Boolean> relevant = new ConcurrentHashMap<String, Boolean>();
+
+        private final ConcurrentLinkedQueue<List<ScannedElement>> found = new ConcurrentLinkedQueue<List<ScannedElement>>();
+
+        private Scan(ClassFileResolver resolver) {
+            this.resolver = resolver;
+        }
+
+        void scan(Archive archive, String resource, ByteBuffer bytes) throws IOException {
+            final ClassFile classFile;
+            try {
+                classFile = ClassFile.read(bytes);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid class file " + resource + " in " + archive, e);
+            }
+
+            if (!isRelevant(classFile)) return;
+
+            final List<ScannedElement> elements = new ArrayList<ScannedElement>();
+
+            final String className = classFile.getName();
+            final File location = archive.getFile();
+
+            add(elements, ScannedElement.Kind.CLASS, location, className, null, -1, classFile.getAnnotations());
+
+            for (MemberInfo field : classFile.getFields()) {
+                add(elements, ScannedElement.Kind.FIELD, location, className, field, -1, field.getAnnotations());
+            }
+
+            for (MemberInfo method : classFile.getMethods()) {
+                final ScannedElement.Kind kind = method.isConstructor() ? ScannedElement.Kind.CONSTRUCTOR : ScannedElement.Kind.METHOD;
+
+                add(elements, kind, location, className, method, -1, method.getAnnotations());
+
+                final List<List<AnnotationInfo>> parameters = method.getParameterAnnotations();
+
+                for (int i = 0; i < parameters.size(); i++) {
+                    add(elements, ScannedElement.Kind.PARAMETER, location, className, method, i, parameters.get(i));
+                }
+            }
+
+            if (!elements.isEmpty()) found.add(elements);
+        }
+
+        private void add(List<ScannedElement> elements, ScannedElement.Kind kind, File location, String className, MemberInfo member, int parameter, List<AnnotationInfo> declared) throws IOException {
+            if (!isRelevant(declared)) return;
+
+            final Map<String, MetaAnnotationInfo> annotations = resolver.resolve(declared);
+
+            for (String type : annotations.keySet()) {
+                if (!interest.contains(type)) continue;
+
+                elements.add(new ScannedElement(kind, location, className, member, parameter, annotations));
+                return;
+            }
+        }
+
+        private boolean isRelevant(ClassFile classFile) throws IOException {
+            if (isRelevant(classFile.getAnnotations())) return true;
+
+            for (MemberInfo field : classFile.getFields()) {
+                if (isRelevant(field.getAnnotations())) return true;
+            }
+
+            for (MemberInfo method : classFile.getMethods()) {
+                if (isRelevant(method.getAnnotations())) return true;
+
+                for (List<AnnotationInfo> parameter : method.getParameterAnnotations()) {
+                    if (isRelevant(parameter)) return true;
+                }
+            }
+
+            return false;
+        }
+
+        private boolean isRelevant(List<AnnotationInfo> declared) throws IOException {
+            for (AnnotationInfo annotation : declared) {
+                if (isRelevant(annotation.getType())) return true;
+            }
+
+            return false;
+        }
+
+        private boolean isRelevant(String annotationType) throws IOException {
+            final Boolean existing = relevant.get(annotationType);
+            if (existing != null) return existing;
+
+            boolean decision = false;
+
+            for (String type : resolver.getReachable(annotationType)) {
+                if (interest.contains(type)) {
+                    decision = true;
+                    break;
+                }
+            }
+
+            relevant.put(annotationType, decision);
+            return decision;
+        }
+
+        /**
+         * Every annotation type read while scanning, declared in the roots
+         * or reached from one that was
+         */
+        Set<String> annotationTypes() throws IOException {
+            final Set<String> types = new HashSet<String>();
+
+            for (String type : relevant.keySet()) {
+                types.addAll(resolver.getReachable(type));
+            }
+
+            return types;
+        }
+
+        List<ScannedElement> results() {
+            final List<List<ScannedElement>> classes = new ArrayList<List<ScannedElement>>(found);
+
+            Collections.sort(classes, new Comparator<List<ScannedElement>>() {
+                @Override
+                public int compare(List<ScannedElement> a, List<ScannedElement> b) {
+                    return a.get(0).getClassName().compareTo(b.get(0).getClassName());
+                }
+            });
+
+            final List<ScannedElement> results = new ArrayList<ScannedElement>();
+
+            for (List<ScannedElement> elements : classes) {
+                results.addAll(elements);
+            }
+
+            return results;
+        }
+    }
+
+    private static final class DirectoryTask extends RecursiveAction {
+
+        private final Scan scan;
+        private final Archive archive;
+        private final File directory;
+        private final String path;
+
+        private DirectoryTask(Scan scan, Archive archive, File directory, String path) {
+            this.scan = scan;
+            this.archive = archive;
+            this.directory = directory;
+            this.path = path;
+        }
+
+        @Override
+        protected void compute() {
+            final File[] files = directory.listFiles();
+
+            if (files == null) return;
+
+            final List<DirectoryTask> subdirectories = new ArrayList<DirectoryTask>();
+
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    subdirectories.add(new DirectoryTask(scan, archive, file, path + file.getName() + "/"));
+                }
+            }
+
+            invokeAll(subdirectories);
+
+            for (File file : files) {
+                final String resource = path + file.getName();
+
+                if (!file.isFile() || !Archive.isClass(resource)) continue;
+
+                try {
+                    scan.scan(archive, resource, archive.read(resource));
+                } catch (IOException e) {
+                    throw new ScanFailure(e);
+                }
+            }
+        }
+    }
+
+    private static final class JarTask extends RecursiveAction {
+
+        private final Scan scan;
+        private final Archive.Jar jar;
+        private final List<ZipArchive.Entry> entries;
+
+        private JarTask(Scan scan, Archive.Jar jar, List<ZipArchive.Entry> entries) {
+            this.scan = scan;
+            this.jar = jar;
+            this.entries = entries;
+        }
+
+        @Override
+        protected void compute() {
+            if (entries.size() > SLICE) {
+                final int half = entries.size() / 2;
+                invokeAll(new JarTask(scan, jar, entries.subList(0, half)), new JarTask(scan, jar, entries.subList(half, entries.size())));
+                return;
+            }
+
+            for (ZipArchive.Entry entry : entries) {
+                try {
+                    scan.scan(jar, entry.getName(), jar.read(entry));
+                } catch (IOException e) {
+                    throw new ScanFailure(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a jar inside another only when it is its turn, and lets go of
+     * it, inflated or not, once it and the jars in it are scanned
+     */
+    private static final class NestedJarTask extends RecursiveAction {
+
+        private final Scan scan;
+        private final Archive.Nested nested;
+
+        private NestedJarTask(Scan scan, Archive.Nested nested) {
+            this.scan = scan;
+            this.nested = nested;
+        }
+
+        @Override
+        protected void compute() {
+            final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+
+            try {
+                add(tasks, scan, nested.open());
+            } catch (IOException e) {
+                throw new ScanFailure(e);
+            }
+
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Carries an IOException out of the fork-join tasks
+     */
+    private static final class ScanFailure extends RuntimeException {
+
+        private ScanFailure(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * A class, member or parameter found by a {@link MetatypeScanner}, with
+ * all of its unrolled annotations
+ *
+ * @author David Blevins
+ */
+public final class ScannedElement {
+
+    public static enum Kind {
+        CLASS, FIELD, METHOD, CONSTRUCTOR, PARAMETER
+    }
+
+    private final Kind kind;
+    private final File location;
+    private final String className;
+    private final MemberInfo member;
+    private final int parameter;
+    private final Map<String, MetaAnnotationInfo> annotations;
+
+    ScannedElement(Kind kind, File location, String className, MemberInfo member, int parameter, Map<String, MetaAnnotationInfo> annotations) {
+        this.kind = kind;
+        this.location = location;
+        this.className = className;
+        this.member = member;
+        this.parameter = parameter;
+        this.annotations = annotations;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * The directory or jar the class was found in
+     */
+    public File getLocation() {
+        return location;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * The field, method or constructor, or the one declaring the parameter,
+     * or null for a class
+     */
+    public MemberInfo getMember() {
+        return member;
+    }
+
+    /**
+     * The index of the parameter, or -1 if this is not a parameter
+     */
+    public int getParameter() {
+        return parameter;
+    }
+
+    /**
+     * Everything the element is annotated with, declared or meta, by type name
+     */
+    public Map<String, MetaAnnotationInfo> getAnnotations() {
+        return annotations;
+    }
+
+    public MetaAnnotationInfo getAnnotation(String annotationType) {
+        return annotations.get(annotationType);
+    }
+
+    public boolean isAnnotationPresent(String annotationType) {
+        return annotations.containsKey(annotationType);
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case CLASS:
+                return className;
+            case PARAMETER:
+                return className + "." + member.getName() + member.getDescriptor() + "[" + parameter + "]";
+            case FIELD:
+                return className + "." + member.getName();
+            default:
+                return className + "." + member.getName() + member.getDescriptor();
+        }
+    }
+}
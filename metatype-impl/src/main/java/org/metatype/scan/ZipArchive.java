@@ -0,0 +1,332 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A zip read in place from a buffer, normally a memory mapped file.
+ *
+ * Only the central directory is parsed.  A stored entry is a slice of the
+ * buffer, so a jar stored inside a jar, as in Spring Boot's BOOT-INF/lib
+ * or a war's WEB-INF/lib, is itself read in place without extracting it.
+ * A deflated entry is inflated straight from the buffer into an array of
+ * its exact size.  Zip64 archives are supported, as are archives after a
+ * prefix, such as the launch script of a "fully executable" Spring Boot
+ * jar, whose offsets do not count the prefix.
+ *
+ * Readable by many threads at once: the buffer is never repositioned,
+ * every read works on a duplicate.
+ *
+ * @author David Blevins
+ */
+final class ZipArchive {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int END = 0x06054b50;
+    private static final int END64 = 0x06064b50;
+    private static final int END64_LOCATOR = 0x07064b50;
+    private static final int CENTRAL = 0x02014b50;
+    private static final int LOCAL = 0x04034b50;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    // the end record, less its variable length comment
+    private static final int END_SIZE = 22;
+
+    // the zip64 end record, less its extensible data
+    private static final int END64_SIZE = 56;
+
+    private final ByteBuffer zip;
+    private final List<Entry> entries;
+
+    private volatile Map<String, Entry> names;
+
+    ZipArchive(ByteBuffer zip) throws IOException {
+        this.zip = zip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            this.entries = Collections.unmodifiableList(centralDirectory());
+        } catch (IndexOutOfBoundsException e) {
+            throw new ZipException("Malformed zip, " + e.getMessage());
+        }
+    }
+
+    static ZipArchive map(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Archive too large to map: " + file.getAbsolutePath());
+
+            // the mapping stays valid once the channel is closed, and goes when it is collected
+            return new ZipArchive(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } finally {
+            raf.close();
+        }
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * The entry with the name, or null
+     */
+    public Entry getEntry(String name) {
+        Map<String, Entry> names = this.names;
+
+        if (names == null) {
+            names = new HashMap<String, Entry>(entries.size() * 2);
+            for (Entry entry : entries) {
+                names.put(entry.name, entry);
+            }
+            this.names = names;
+        }
+
+        return names.get(name);
+    }
+
+    /**
+     * The content of the entry, a slice of the archive if it is stored
+     */
+    public ByteBuffer read(Entry entry) throws IOException {
+        try {
+            return data(entry);
+        } catch (IndexOutOfBoundsException e) {
+            throw new ZipException("Malformed entry " + entry.name);
+        } catch (IllegalArgumentException e) {
+            throw new ZipException("Malformed entry " + entry.name);
+        }
+    }
+
+    private ByteBuffer data(Entry entry) throws IOException {
+        if (zip.getInt(entry.header) != LOCAL) throw new ZipException("Missing local header for " + entry.name);
+
+        final int start = entry.header + 30 + (zip.getShort(entry.header + 26) & 0xFFFF) + (zip.getShort(entry.header + 28) & 0xFFFF);
+
+        final ByteBuffer data = zip.duplicate();
+        data.position(start);
+        data.limit(start + entry.compressedSize);
+
+        switch (entry.method) {
+            case STORED:
+                return data.slice();
+            case DEFLATED:
+                return ByteBuffer.wrap(inflate(entry, data));
+            default:
+                throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+    }
+
+    private static byte[] inflate(Entry entry, ByteBuffer data) throws ZipException {
+        // one spare byte, the inflater may need it in nowrap mode
+        final byte[] input = new byte[entry.compressedSize + 1];
+        data.get(input, 0, entry.compressedSize);
+
+        final byte[] output = new byte[entry.size];
+
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(input);
+
+            int inflated = 0;
+            while (inflated < output.length && !inflater.finished()) {
+                final int count = inflater.inflate(output, inflated, output.length - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                inflated += count;
+            }
+
+            if (inflated != output.length) throw new ZipException("Truncated entry " + entry.name);
+
+            return output;
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt entry " + entry.name + ", " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private List<Entry> centralDirectory() throws IOException {
+        final int end = findEnd();
+
+        // where the central directory ends, just before this record
+        int directoryEnd = end;
+
+        long count = zip.getShort(end + 10) & 0xFFFF;
+        long directorySize = zip.getInt(end + 12) & 0xFFFFFFFFL;
+        long offset = zip.getInt(end + 16) & 0xFFFFFFFFL;
+
+        final int locator = end - 20;
+
+        if (locator >= 0 && zip.getInt(locator) == END64_LOCATOR) {
+            long end64 = zip.getLong(locator + 8);
+
+            // the recorded offset does not count a prefix, the record is normally right before the locator
+            if (end64 < 0 || end64 > locator || zip.getInt((int) end64) != END64) end64 = locator - END64_SIZE;
+
+            if (end64 < 0 || zip.getInt((int) end64) != END64) throw new ZipException("Malformed zip64 end record");
+
+            directoryEnd = (int) end64;
+            count = zip.getLong(directoryEnd + 32);
+            directorySize = zip.getLong(directoryEnd + 40);
+            offset = zip.getLong(directoryEnd + 48);
+        }
+
+        if (offset < 0 || directorySize < 0 || offset + directorySize > directoryEnd || count > Integer.MAX_VALUE) throw new ZipException("Malformed central directory");
+
+        // the bytes before the archive, that none of its offsets count
+        final int prefix = (int) (directoryEnd - (offset + directorySize));
+        offset += prefix;
+
+        final List<Entry> entries = new ArrayList<Entry>((int) count);
+
+        int position = (int) offset;
+
+        for (long i = 0; i < count; i++) {
+            if (zip.getInt(position) != CENTRAL) throw new ZipException("Malformed central directory entry " + i);
+
+            final int method = zip.getShort(position + 10) & 0xFFFF;
+            long compressedSize = zip.getInt(position + 20) & 0xFFFFFFFFL;
+            long size = zip.getInt(position + 24) & 0xFFFFFFFFL;
+            final int nameLength = zip.getShort(position + 28) & 0xFFFF;
+            final int extraLength = zip.getShort(position + 30) & 0xFFFF;
+            final int commentLength = zip.getShort(position + 32) & 0xFFFF;
+            long header = zip.getInt(position + 42) & 0xFFFFFFFFL;
+
+            final String name = string(position + 46, nameLength);
+
+            // the zip64 extra field has the values that did not fit, in this order
+            int extra = position + 46 + nameLength;
+            final int extraEnd = extra + extraLength;
+
+            while (extra + 4 <= extraEnd) {
+                final int id = zip.getShort(extra) & 0xFFFF;
+                final int length = zip.getShort(extra + 2) & 0xFFFF;
+
+                if (id == 0x0001) {
+                    int field = extra + 4;
+                    if (size == 0xFFFFFFFFL) {
+                        size = zip.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == 0xFFFFFFFFL) {
+                        compressedSize = zip.getLong(field);
+                        field += 8;
+                    }
+                    if (header == 0xFFFFFFFFL) {
+                        header = zip.getLong(field);
+                    }
+                    break;
+                }
+
+                extra += 4 + length;
+            }
+
+            header += prefix;
+
+            if (size > Integer.MAX_VALUE || compressedSize > Integer.MAX_VALUE || header > Integer.MAX_VALUE) {
+                throw new ZipException("Entry too large: " + name);
+            }
+
+            entries.add(new Entry(name, method, (int) compressedSize, (int) size, (int) header));
+
+            position = extraEnd + commentLength;
+        }
+
+        return entries;
+    }
+
+    /**
+     * The end of central directory record, searched for backwards past
+     * any archive comment
+     */
+    private int findEnd() throws ZipException {
+        final int last = zip.limit() - END_SIZE;
+        final int first = Math.max(0, last - 0xFFFF);
+
+        for (int position = last; position >= first; position--) {
+            if (zip.getInt(position) == END) return position;
+        }
+
+        throw new ZipException("Not a zip, no end of central directory");
+    }
+
+    private String string(int position, int length) {
+        final byte[] bytes = new byte[length];
+
+        final ByteBuffer buffer = zip.duplicate();
+        buffer.position(position);
+        buffer.get(bytes);
+
+        return new String(bytes, UTF_8);
+    }
+
+    static final class Entry {
+
+        private final String name;
+        private final int method;
+        private final int compressedSize;
+        private final int size;
+        private final int header;
+
+        private Entry(String name, int method, int compressedSize, int size, int header) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.header = header;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public boolean isStored() {
+            return method == STORED;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
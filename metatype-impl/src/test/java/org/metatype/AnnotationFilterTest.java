@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metatype;
+
+/**
+ * @author David Blevins
+ */
+public class AnnotationFilterTest extends TestCase {
+
+    private static final AnnotationFilter COLOR = AnnotationFilter.interestedIn(Color.class);
+
+    public void testInterest() throws Exception {
+        final MetaAnnotationSet filtered = COLOR.resolve(Square.class);
+
+        assertEquals(1, filtered.size());
+        assertFalse(filtered.contains(Crimson.class));
+        assertFalse(filtered.contains(Red.class));
+
+        // the same answer the full unroll gives for that type
+        final MetaAnnotation<Color> color = filtered.get(Color.class);
+        final MetaAnnotation<Color> full = MetaAnnotatedClass.of(Square.class).getMetaAnnotationSet().get(Color.class);
+
+        assertSame(full.get(), color.get());
+        assertEquals(full.getDepth(), color.getDepth());
+        assertEquals(2, color.getDepth());
+    }
+
+    public void testConflicts() throws Exception {
+        final MetaAnnotation<Color> color = COLOR.resolve(Clash.class).get(Color.class);
+
+        assertEquals(1, color.getDepth());
+        assertEquals(1, color.getConflicts().size());
+    }
+
+    public void testPruned() throws Exception {
+        assertTrue(COLOR.expands(Crimson.class));
+        assertTrue(COLOR.keeps(Color.class));
+        assertFalse(COLOR.keeps(Crimson.class));
+
+        // can never lead to a Color
+        assertTrue(COLOR.skips(Shape.class));
+        assertTrue(COLOR.resolve(Circle.class).isEmpty());
+    }
+
+    public void testExcluded() throws Exception {
+        assertTrue(AnnotationFilter.ALL.excluding("org.metatype").resolve(Square.class).isEmpty());
+
+        // whole package names only
+        assertFalse(AnnotationFilter.ALL.excluding("org.meta").isExcluded(Color.class));
+        assertEquals(3, AnnotationFilter.ALL.excluding("org.meta").resolve(Square.class).size());
+    }
+
+    public void testShared() throws Exception {
+        final MetaAnnotationSet square = COLOR.resolve(Square.class);
+
+        assertSame(square, COLOR.resolve(Square.class.getMethod("paint")));
+        assertNotSame(square, MetaAnnotatedClass.of(Square.class).getMetaAnnotationSet());
+        assertNotSame(square, AnnotationFilter.interestedIn(Color.class).resolve(Square.class));
+    }
+
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Color {
+        String value() default "";
+    }
+
+    @Metatype
+    @Color("red")
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Red {
+    }
+
+    @Metatype
+    @Red
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Crimson {
+    }
+
+    @Metatype
+    @Color("scarlet")
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Scarlet {
+    }
+
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Round {
+    }
+
+    @Metatype
+    @Round
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Shape {
+    }
+
+    @Crimson
+    public static class Square {
+
+        @Crimson
+        public void paint() {
+        }
+    }
+
+    @Scarlet
+    @Red
+    public static class Clash {
+    }
+
+    @Shape
+    public static class Circle {
+    }
+}
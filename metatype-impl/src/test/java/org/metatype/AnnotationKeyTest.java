@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metatype;
+
+/**
+ * @author David Blevins
+ */
+public class AnnotationKeyTest extends TestCase {
+
+    private static final AnnotationKey<Color> COLOR = Metatypes.key(Color.class);
+    private static final AnnotationKey<Red> RED = Metatypes.key(Red.class);
+    private static final AnnotationKey<Blue> BLUE = Metatypes.key(Blue.class);
+
+    public void testKey() throws Exception {
+        final MetaAnnotatedClass<Square> annotated = MetaAnnotatedClass.of(Square.class);
+
+        assertEquals(Color.class, COLOR.getType());
+
+        assertTrue(annotated.isAnnotationPresent(COLOR));
+        assertFalse(annotated.isAnnotationPresent(BLUE));
+
+        assertEquals("red", annotated.getAnnotation(COLOR).value());
+        assertSame(annotated.getAnnotation(Red.class), annotated.getAnnotation(RED));
+        assertNull(annotated.getAnnotation(BLUE));
+
+        final MetaAnnotation<Color> color = annotated.getMetaAnnotation(COLOR);
+        assertEquals(1, color.getDepth());
+        assertSame(annotated.getAnnotation(Color.class), color.get());
+        assertNull(annotated.getMetaAnnotation(BLUE));
+    }
+
+    public void testAcrossSets() throws Exception {
+        final MetaAnnotatedClass<Square> square = MetaAnnotatedClass.of(Square.class);
+
+        // the same key against sets holding its type at different slots
+        final MetaAnnotatedMethod paint = square.getMethod("paint");
+        final MetaAnnotatedMethod plain = square.getMethod("plain");
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("red", square.getAnnotation(COLOR).value());
+            assertEquals("blue", paint.getAnnotation(COLOR).value());
+            assertNull(plain.getAnnotation(COLOR));
+            assertNotNull(paint.getAnnotation(BLUE));
+        }
+    }
+
+    public void testAlternatingSetsDoNotAllocate() throws Exception {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        // a HotSpot extension, not there on every JVM
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return;
+
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) return;
+
+        final MetaAnnotatedClass<Square> square = MetaAnnotatedClass.of(Square.class);
+        final MetaAnnotatedMethod paint = square.getMethod("paint");
+
+        final int iterations = 100000;
+        int found = alternate(square, paint, 1000);
+
+        final long thread = Thread.currentThread().getId();
+        final long before = allocations.getThreadAllocatedBytes(thread);
+
+        found += alternate(square, paint, iterations);
+
+        final long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(2 * (1000 + iterations), found);
+
+        // a few bytes per switch would be megabytes
+        assertTrue("allocated " + allocated + " bytes", allocated < iterations);
+    }
+
+    private static int alternate(MetaAnnotatedClass<Square> square, MetaAnnotatedMethod paint, int iterations) {
+        int found = 0;
+
+        for (int i = 0; i < iterations; i++) {
+            if (square.getAnnotation(COLOR) != null) found++;
+            if (paint.getAnnotation(COLOR) != null) found++;
+        }
+
+        return found;
+    }
+
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Color {
+        String value() default "";
+    }
+
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Blue {
+    }
+
+    @Metatype
+    @Color("red")
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Red {
+    }
+
+    @Red
+    public static class Square {
+
+        @Blue
+        @Color("blue")
+        public void paint() {
+        }
+
+        public void plain() {
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Documented;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metatype;
+
+/**
+ * @author David Blevins
+ */
+public class AnnotationSetTest extends TestCase {
+
+    public void testSet() throws Exception {
+        final AnnotationSet set = AnnotationSet.of(Red.class, Color.class, Red.class);
+
+        assertEquals(2, set.size());
+        assertTrue(set.contains(Red.class));
+        assertTrue(set.contains(Color.class));
+        assertFalse(set.contains(Blue.class));
+
+        assertTrue(set.containsAll(AnnotationSet.of(Color.class)));
+        assertTrue(set.containsAll(AnnotationSet.EMPTY));
+        assertFalse(set.containsAll(AnnotationSet.of(Color.class, Blue.class)));
+
+        assertTrue(set.containsAny(AnnotationSet.of(Color.class, Blue.class)));
+        assertFalse(set.containsAny(AnnotationSet.of(Blue.class, Inherited.class)));
+        assertFalse(set.containsAny(AnnotationSet.EMPTY));
+
+        assertEquals(AnnotationSet.of(Color.class), set.intersect(AnnotationSet.of(Color.class, Blue.class)));
+        assertEquals(AnnotationSet.of(Blue.class, Color.class, Red.class), set.union(AnnotationSet.of(Blue.class)));
+        assertEquals(AnnotationSet.of(Color.class, Red.class), set);
+        assertEquals(AnnotationSet.of(Color.class, Red.class).hashCode(), set.hashCode());
+    }
+
+    public void testPresence() throws Exception {
+        final MetaAnnotatedClass<Square> annotated = new MetaAnnotatedClass<Square>(Square.class);
+
+        assertTrue(annotated.hasAll(AnnotationSet.of(Red.class, Color.class)));
+        assertFalse(annotated.hasAll(AnnotationSet.of(Red.class, Blue.class)));
+        assertTrue(annotated.hasAny(AnnotationSet.of(Blue.class, Color.class)));
+        assertFalse(annotated.hasAny(AnnotationSet.of(Blue.class, Documented.class)));
+
+        assertEquals(AnnotationSet.of(Red.class, Color.class), annotated.getMetaAnnotationSet().getTypes());
+    }
+
+    public void testRedeployed() throws Exception {
+        // taken before the redeploys, as the server's own types would be
+        AnnotationTypeRegistry.id(Color.class);
+        AnnotationTypeRegistry.id(Red.class);
+
+        Class<? extends Annotation> blue = null;
+
+        for (int i = 0; i < 2000; i++) {
+            blue = new Redeployment(getClass().getClassLoader()).loadClass(Blue.class.getName()).asSubclass(Annotation.class);
+
+            // as resolving the application's annotations would
+            AnnotationTypeRegistry.id(blue);
+        }
+
+        assertNotSame(Blue.class, blue);
+        assertTrue(AnnotationTypeRegistry.id(blue) - AnnotationTypeRegistry.id(Color.class) >= 2000);
+
+        final AnnotationSet set = AnnotationSet.of(blue, Color.class, Red.class);
+
+        // not the thirty odd words between them
+        assertTrue("" + set.wordCount(), set.wordCount() <= 2);
+
+        assertEquals(3, set.size());
+        assertTrue(set.contains(blue));
+        assertTrue(set.contains(Color.class));
+        assertFalse(set.contains(Blue.class));
+
+        // Color and Red in either order, whichever was seen first
+        assertEquals(1, set.rank(AnnotationTypeRegistry.id(Color.class)) + set.rank(AnnotationTypeRegistry.id(Red.class)));
+        assertEquals(2, set.rank(AnnotationTypeRegistry.id(blue)));
+        assertEquals(-1, set.rank(AnnotationTypeRegistry.id(Blue.class)));
+
+        assertTrue(set.containsAll(AnnotationSet.of(Color.class, blue)));
+        assertFalse(set.containsAll(AnnotationSet.of(Color.class, Blue.class)));
+        assertTrue(set.containsAny(AnnotationSet.of(blue)));
+        assertTrue(AnnotationSet.of(Color.class).containsAny(set));
+        assertFalse(set.containsAny(AnnotationSet.of(Blue.class, Documented.class)));
+
+        assertEquals(AnnotationSet.of(Color.class, blue), set.intersect(AnnotationSet.of(blue, Color.class, Blue.class)));
+        assertEquals(AnnotationSet.of(Red.class, blue, Color.class), set);
+        assertEquals(AnnotationSet.of(Red.class, blue, Color.class).hashCode(), set.hashCode());
+        assertFalse(set.equals(AnnotationSet.of(Red.class, Blue.class, Color.class)));
+    }
+
+    /**
+     * Defines its own copy of the fixture classes, parent-last, as a
+     * redeployed application would
+     */
+    private static class Redeployment extends ClassLoader {
+
+        private Redeployment(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(AnnotationSetTest.class.getName() + "$") || name.equals(Redeployment.class.getName())) return super.loadClass(name, resolve);
+
+            Class<?> loaded = findLoadedClass(name);
+
+            if (loaded == null) {
+                final byte[] bytes = read(name.replace('.', '/') + ".class");
+                loaded = defineClass(name, bytes, 0, bytes.length);
+            }
+
+            return loaded;
+        }
+
+        private byte[] read(String resource) throws ClassNotFoundException {
+            final InputStream in = getParent().getResourceAsStream(resource);
+            if (in == null) throw new ClassNotFoundException(resource);
+
+            try {
+                try {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    final byte[] buffer = new byte[4096];
+
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+
+                    return out.toByteArray();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new ClassNotFoundException(resource, e);
+            }
+        }
+    }
+
+    @Target(value = {TYPE})
+    @Retention(value = RUNTIME)
+    public static @interface Color {
+        String value() default "";
+    }
+
+    @Target(value = {TYPE})
+    @Retention(value = RUNTIME)
+    public static @interface Blue {
+    }
+
+    @Metatype
+    @Color("red")
+    @Target(value = {TYPE})
+    @Retention(value = RUNTIME)
+    public static @interface Red {
+    }
+
+    @Red
+    public static class Square {
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import junit.framework.TestCase;
+
+/**
+ * @author David Blevins
+ */
+public class CachePolicyTest extends TestCase {
+
+    public void testUnbounded() throws Exception {
+        final CachePolicy policy = CachePolicy.unbounded();
+        final CacheSlot<String> slot = new CacheSlot<String>();
+
+        assertNull(policy.get(slot));
+        assertEquals("one", policy.put(slot, "one"));
+
+        // first one in wins
+        assertEquals("one", policy.put(slot, "two"));
+        assertEquals("one", policy.get(slot));
+
+        final CacheStats stats = policy.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(0, stats.getEvictions());
+    }
+
+    public void testSoft() throws Exception {
+        final CachePolicy policy = CachePolicy.soft();
+        final CacheSlot<String> slot = new CacheSlot<String>();
+
+        assertNull(policy.get(slot));
+        assertEquals("one", policy.put(slot, "one"));
+        assertEquals("one", policy.put(slot, "two"));
+        assertEquals("one", policy.get(slot));
+    }
+
+    public void testBounded() throws Exception {
+        final CachePolicy policy = CachePolicy.bounded(2);
+
+        final CacheSlot<String> hot = new CacheSlot<String>();
+        final CacheSlot<String> warm = new CacheSlot<String>();
+        final CacheSlot<String> once = new CacheSlot<String>();
+
+        for (int i = 0; i < 5; i++) {
+            if (policy.get(hot) == null) policy.put(hot, "hot");
+        }
+
+        for (int i = 0; i < 3; i++) {
+            if (policy.get(warm) == null) policy.put(warm, "warm");
+        }
+
+        // a one-off does not push out anything used more
+        assertNull(policy.get(once));
+        assertEquals("once", policy.put(once, "once"));
+        assertNull(policy.get(once));
+        assertEquals("hot", policy.get(hot));
+        assertEquals("warm", policy.get(warm));
+        assertEquals(1, policy.getStats().getEvictions());
+
+        // asked for often enough, it gets in
+        for (int i = 0; i < 10 && policy.get(once) == null; i++) {
+            policy.put(once, "once");
+        }
+
+        assertEquals("once", policy.get(once));
+        assertEquals("hot", policy.get(hot));
+        assertNull(policy.get(warm));
+    }
+
+    public void testParse() throws Exception {
+        assertEquals("unbounded", CachePolicy.parse("unbounded").toString());
+        assertEquals("soft", CachePolicy.parse("soft").toString());
+        assertEquals("bounded:100", CachePolicy.parse("bounded:100").toString());
+
+        try {
+            CachePolicy.parse("lru");
+            fail("unknown policy");
+        } catch (IllegalArgumentException expected) {
+            // pass
+        }
+
+        try {
+            CachePolicy.bounded(0);
+            fail("size must be positive");
+        } catch (IllegalArgumentException expected) {
+            // pass
+        }
+    }
+
+    public void testDefaultStats() throws Exception {
+        final long hits = Metatypes.getCacheStats().getHits();
+
+        MetaAnnotatedClass.of(CachePolicyTest.class);
+        MetaAnnotatedClass.of(CachePolicyTest.class);
+
+        assertTrue(Metatypes.getCacheStats().getHits() > hits);
+    }
+}
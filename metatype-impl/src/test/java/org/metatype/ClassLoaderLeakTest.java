@@ -0,0 +1,245 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metatype;
+
+/**
+ * Nothing cached may keep an application's classloader alive
+ *
+ * @author David Blevins
+ */
+public class ClassLoaderLeakTest extends TestCase {
+
+    private static final String PREFIX = ClassLoaderLeakTest.class.getName() + "$";
+
+    public void testCollectable() throws Exception {
+        assertCollected(deploy());
+    }
+
+    public void testCollectableFiltered() throws Exception {
+        assertCollected(deployFiltered());
+    }
+
+    public void testCollectableNavigated() throws Exception {
+        assertCollected(deployNavigated());
+    }
+
+    private static void assertCollected(WeakReference<ClassLoader> loader) throws Exception {
+        for (int i = 0; i < 50 && loader.get() != null; i++) {
+            System.gc();
+
+            // a little pressure helps along soft and weak clearing
+            final List<byte[]> garbage = new ArrayList<byte[]>();
+            for (int j = 0; j < 16; j++) garbage.add(new byte[1024 * 1024]);
+
+            Thread.sleep(20);
+        }
+
+        assertNull("the loader should have been collected", loader.get());
+    }
+
+    public void testEvict() throws Exception {
+        final Deployment deployment = new Deployment(getClass().getClassLoader());
+        final Class<?> square = deployment.loadClass(PREFIX + "Square");
+
+        final MetaAnnotatedClass<?> annotated = MetaAnnotatedClass.of(square);
+        assertEquals(3, annotated.getAnnotations().length);
+        assertSame(annotated, MetaAnnotatedClass.of(square));
+
+        Metatypes.evict(deployment);
+
+        final MetaAnnotatedClass<?> fresh = MetaAnnotatedClass.of(square);
+        assertNotSame(annotated, fresh);
+        assertEquals(3, fresh.getAnnotations().length);
+
+        // nothing of ours is touched
+        final MetaAnnotatedClass<Square> local = MetaAnnotatedClass.of(Square.class);
+        Metatypes.evict(deployment);
+        assertSame(local, MetaAnnotatedClass.of(Square.class));
+    }
+
+    /**
+     * Loads and fully resolves a copy of the fixtures in a loader of its own,
+     * touching every cache, then lets go of all of it
+     */
+    private static WeakReference<ClassLoader> deploy() throws Exception {
+        final Deployment deployment = new Deployment(ClassLoaderLeakTest.class.getClassLoader());
+
+        final Class<?> square = deployment.loadClass(PREFIX + "Square");
+        final Class<? extends Annotation> color = deployment.loadClass(PREFIX + "Color").asSubclass(Annotation.class);
+        final Class<? extends Annotation> crimson = deployment.loadClass(PREFIX + "Crimson").asSubclass(Annotation.class);
+
+        assertNotSame(Square.class, square);
+
+        final MetaAnnotatedClass<?> annotated = MetaAnnotatedClass.of(square);
+        assertEquals(3, annotated.getAnnotations().length);
+        assertNotNull(annotated.getMethod("paint", String.class).getAnnotation(color));
+        assertEquals(1, annotated.getMethod("paint", String.class).getParameterAnnotations().length);
+
+        assertNotNull(Metatypes.getAnnotation(square.getMethod("paint", String.class), color));
+        assertNotNull(Metatypes.find(square, color));
+        assertTrue(Metatypes.implies(crimson, color));
+        assertNotNull(Metatypes.key(color).getType());
+        assertFalse(AnnotationFilter.interestedIn(color).resolve(square).isEmpty());
+
+        return new WeakReference<ClassLoader>(deployment);
+    }
+
+    /**
+     * Resolves through a resolver of its own, filtered on an annotation of the
+     * deployment and built in steps, then closes it as an application would
+     * on undeploy
+     */
+    private static WeakReference<ClassLoader> deployFiltered() throws Exception {
+        final Deployment deployment = new Deployment(ClassLoaderLeakTest.class.getClassLoader());
+
+        final Class<?> square = deployment.loadClass(PREFIX + "Square");
+        final Class<? extends Annotation> color = deployment.loadClass(PREFIX + "Color").asSubclass(Annotation.class);
+
+        final MetatypeResolver resolver = MetatypeResolver.create()
+                .withCachePolicy(CachePolicy.bounded(100))
+                .withFilter(AnnotationFilter.interestedIn(color))
+                .eager();
+
+        final MetaAnnotatedClass<?> annotated = resolver.of(square);
+        assertNotNull(annotated.getAnnotation(color));
+        assertNotNull(resolver.of(square.getMethod("paint", String.class)).getAnnotation(color));
+
+        resolver.close();
+
+        return new WeakReference<ClassLoader>(deployment);
+    }
+
+    /**
+     * Navigates from the deployment's classes into the JDK's through a
+     * resolver of its own, leaving wrappers cached on Object, then closes it
+     */
+    private static WeakReference<ClassLoader> deployNavigated() throws Exception {
+        final Deployment deployment = new Deployment(ClassLoaderLeakTest.class.getClassLoader());
+
+        final Class<?> square = deployment.loadClass(PREFIX + "Square");
+        final Class<? extends Annotation> color = deployment.loadClass(PREFIX + "Color").asSubclass(Annotation.class);
+
+        final MetatypeResolver resolver = MetatypeResolver.create().withFilter(AnnotationFilter.interestedIn(color));
+
+        final MetaAnnotatedClass<?> annotated = resolver.of(square);
+        assertNotNull(annotated.getAnnotation(color));
+
+        final MetaAnnotatedClass<?> object = annotated.getSuperclass();
+        assertSame(resolver.of(Object.class), object);
+        assertTrue(annotated.getMethods().length > 1);
+        assertNotNull(object.getMethod("toString"));
+        assertNull(resolver.of(Object.class.getMethod("toString")).getAnnotation(color));
+
+        resolver.close();
+
+        return new WeakReference<ClassLoader>(deployment);
+    }
+
+    /**
+     * Defines its own copy of the fixture classes, parent-last
+     */
+    private static class Deployment extends ClassLoader {
+
+        private Deployment(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(PREFIX) || name.equals(Deployment.class.getName())) return super.loadClass(name, resolve);
+
+            Class<?> loaded = findLoadedClass(name);
+
+            if (loaded == null) {
+                final byte[] bytes = read(name.replace('.', '/') + ".class");
+                loaded = defineClass(name, bytes, 0, bytes.length);
+            }
+
+            if (resolve) resolveClass(loaded);
+
+            return loaded;
+        }
+
+        private byte[] read(String resource) throws ClassNotFoundException {
+            final InputStream in = getParent().getResourceAsStream(resource);
+            if (in == null) throw new ClassNotFoundException(resource);
+
+            try {
+                try {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    final byte[] buffer = new byte[4096];
+
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+
+                    return out.toByteArray();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new ClassNotFoundException(resource, e);
+            }
+        }
+    }
+
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Color {
+        String value() default "";
+    }
+
+    @Metatype
+    @Color("red")
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Red {
+    }
+
+    @Metatype
+    @Red
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Crimson {
+    }
+
+    @Crimson
+    public static class Square {
+
+        @Red
+        public void paint(String brush) {
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.metatype.scan.MetatypeIndex;
+import org.metatype.scan.MetatypeScanner;
+import org.metatype.scan.MetatypeScannerTest.Daily;
+import org.metatype.scan.MetatypeScannerTest.Hourly;
+import org.metatype.scan.MetatypeScannerTest.Reports;
+import org.metatype.scan.MetatypeScannerTest.Schedule;
+import org.metatype.scan.MetatypeScannerTest.Timers;
+
+/**
+ * @author David Blevins
+ */
+public class IndexedElementsTest extends TestCase {
+
+    private static final AnnotationFilter SCHEDULE = AnnotationFilter.interestedIn(Schedule.class);
+
+    private File index;
+
+    @Override
+    protected void setUp() throws Exception {
+        final File classes = new File(IndexedElementsTest.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+
+        // as the build would embed it
+        index = new File(classes, MetatypeIndex.RESOURCE);
+        MetatypeScanner.interestedIn(Schedule.class).index(index, classes);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        index.delete();
+    }
+
+    public void testDiscover() throws Exception {
+        final List<MetatypeIndex> indexes = MetatypeIndex.discover(getClass().getClassLoader());
+
+        assertEquals(1, indexes.size());
+        assertEquals(index.getParentFile().getParentFile(), indexes.get(0).getLocation());
+        assertEquals(4, indexes.get(0).getClassNames().size());
+    }
+
+    public void testUnannotated() throws Exception {
+        final IndexedElements indexed = IndexedElements.of(MetatypeIndex.discover(getClass().getClassLoader()), SCHEDULE);
+
+        assertFalse(indexed.isUnannotated(Reports.class));
+        assertFalse(indexed.isUnannotated(Reports.class.getMethod("report")));
+        assertFalse(indexed.isUnannotated(Timers.class.getDeclaredField("timeout")));
+        assertFalse(indexed.isUnannotated(Daily.class));
+
+        assertTrue(indexed.isUnannotated(Timers.class));
+        assertTrue(indexed.isUnannotated(Reports.class.getMethod("unscheduled")));
+        assertTrue(indexed.isUnannotated(Reports.class.getConstructor()));
+        assertTrue(indexed.isUnannotated(IndexedElementsTest.class));
+
+        // the parameter is listed, not its method
+        assertTrue(indexed.isUnannotated(Reports.class.getMethod("cleanup", String.class)));
+
+        // not in the indexed directory
+        assertFalse(indexed.isUnannotated(String.class));
+        assertFalse(indexed.isUnannotated(Deprecated.class));
+    }
+
+    public void testRecompiled() throws Exception {
+        final File classes = index.getParentFile().getParentFile();
+        final File timers = new File(classes, Timers.class.getName().replace('.', '/') + ".class");
+        final long modified = timers.lastModified();
+
+        final List<MetatypeIndex> indexes = MetatypeIndex.discover(getClass().getClassLoader());
+
+        assertTrue(indexes.get(0).isCurrent(Timers.class.getName()));
+        assertTrue(IndexedElements.of(indexes, SCHEDULE).isUnannotated(Timers.class));
+
+        // as an IDE would after an edit, with the index left as it was
+        assertTrue(timers.setLastModified(index.lastModified() + 2000));
+
+        try {
+            assertFalse(indexes.get(0).isCurrent(Timers.class.getName()));
+            assertTrue(indexes.get(0).isCurrent(Reports.class.getName()));
+
+            final IndexedElements indexed = IndexedElements.of(indexes, SCHEDULE);
+
+            assertFalse(indexed.isUnannotated(Timers.class));
+            assertFalse(indexed.isUnannotated(Timers.class.getDeclaredField("timeout")));
+            assertTrue(indexed.isUnannotated(Reports.class.getMethod("unscheduled")));
+
+            // a class added since
+            assertFalse(indexes.get(0).isCurrent("org.metatype.scan.NoSuchClass"));
+        } finally {
+            timers.setLastModified(modified);
+        }
+    }
+
+    public void testUsable() throws Exception {
+        final List<MetatypeIndex> indexes = MetatypeIndex.discover(getClass().getClassLoader());
+
+        assertNull(IndexedElements.of(indexes, AnnotationFilter.ALL));
+        assertNull(IndexedElements.of(indexes, AnnotationFilter.interestedIn(Schedule.class, Deprecated.class)));
+        assertNotNull(IndexedElements.of(indexes, SCHEDULE.excluding("com.acme")));
+    }
+
+    public void testResolver() throws Exception {
+        final MetatypeResolver resolver = MetatypeResolver.create().withIndexes(getClass().getClassLoader()).withFilter(SCHEDULE);
+
+        assertEquals(1, resolver.getIndexes().size());
+        assertEquals(1, resolver.eager().getIndexes().size());
+        assertTrue(resolver.newChild(getClass().getClassLoader()).getIndexes().isEmpty());
+
+        final MetatypeResolver unindexed = MetatypeResolver.create().withFilter(SCHEDULE);
+
+        // the same answers, with or without the index
+        for (Class<?> type : new Class<?>[]{Reports.class, Timers.class, Daily.class, Hourly.class, IndexedElementsTest.class}) {
+            assertEquals(unindexed.of(type).getMetaAnnotationSet(), resolver.of(type).getMetaAnnotationSet());
+
+            for (MetaAnnotatedMethod method : resolver.of(type).getDeclaredMethods()) {
+                assertEquals(unindexed.of(method.get()).getMetaAnnotationSet(), method.getMetaAnnotationSet());
+            }
+
+            for (MetaAnnotatedField field : resolver.of(type).getDeclaredFields()) {
+                assertEquals(unindexed.of(field.get()).getMetaAnnotationSet(), field.getMetaAnnotationSet());
+            }
+        }
+
+        assertEquals("0 0 * * *", resolver.of(Reports.class.getMethod("report")).getAnnotation(Schedule.class).value());
+        assertSame(MetaAnnotationSet.EMPTY, resolver.of(Reports.class.getMethod("unscheduled")).getMetaAnnotationSet());
+    }
+}
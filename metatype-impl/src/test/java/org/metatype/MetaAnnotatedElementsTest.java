@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+
+/**
+ * The of(...) factories hand out one shared wrapper per reflective target
+ *
+ * @author David Blevins
+ */
+public class MetaAnnotatedElementsTest extends TestCase {
+
+    public void testClass() throws Exception {
+        final MetaAnnotatedClass<Child> child = MetaAnnotatedClass.of(Child.class);
+
+        assertSame(child, MetaAnnotatedClass.of(Child.class));
+        assertSame(MetaAnnotatedClass.of(Parent.class), child.getSuperclass());
+        assertSame(MetaAnnotatedClass.of(Runnable.class), child.getSuperclass().getInterfaces()[0]);
+        assertSame(MetaAnnotatedClass.of(MetaAnnotatedElementsTest.class), child.getDeclaringClass());
+
+        assertNull(MetaAnnotatedClass.of(Object.class).getSuperclass());
+        assertNull(child.getEnclosingMethod());
+    }
+
+    public void testMembers() throws Exception {
+        final MetaAnnotatedClass<Child> child = MetaAnnotatedClass.of(Child.class);
+
+        assertSame(child.getMethod("run"), child.getMethod("run"));
+        assertSame(child.getMethod("run"), MetaAnnotatedMethod.of(Parent.class.getMethod("run")));
+        assertSame(child.getDeclaredField("name"), MetaAnnotatedField.of(Child.class.getDeclaredField("name")));
+        assertSame(child.getConstructor(), MetaAnnotatedConstructor.of(Child.class.getConstructor()));
+
+        // plain constructors still create independent instances
+        assertNotSame(child, new MetaAnnotatedClass<Child>(Child.class));
+    }
+
+    public void testBoundedMembers() throws Exception {
+        final MetaAnnotatedElements bounded = new MetaAnnotatedElements(MetatypeResolver.create(), CachePolicy.bounded(2));
+        final MetaAnnotatedElements unbounded = new MetaAnnotatedElements(MetatypeResolver.create(), CachePolicy.unbounded());
+
+        for (int round = 0; round < 3; round++) {
+            for (Method method : String.class.getDeclaredMethods()) {
+                bounded.of(method);
+                unbounded.of(method);
+            }
+
+            for (Field field : String.class.getDeclaredFields()) {
+                bounded.of(field);
+                unbounded.of(field);
+            }
+        }
+
+        assertEquals(String.class.getDeclaredMethods().length + String.class.getDeclaredFields().length, unbounded.slots(String.class));
+
+        // evicted and declined members leave the map, only the residents stay
+        assertTrue("" + bounded.slots(String.class), bounded.slots(String.class) <= 2);
+    }
+
+    public static class Parent implements Runnable {
+        public void run() {
+        }
+    }
+
+    public static class Child extends Parent {
+        private String name;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import junit.framework.TestCase;
+
+/**
+ * @author David Blevins
+ */
+public class MetaAnnotatedMembersTest extends TestCase {
+
+    public void testShared() throws Exception {
+        final MetaAnnotatedClass<Child> clazz = new MetaAnnotatedClass<Child>(Child.class);
+
+        final MetaAnnotatedMethod[] first = clazz.getMethods();
+        final MetaAnnotatedMethod[] second = clazz.getMethods();
+
+        // callers get their own array, but the same wrappers
+        assertNotSame(first, second);
+        assertEquals(first.length, second.length);
+        for (int i = 0; i < first.length; i++) {
+            assertSame(first[i], second[i]);
+        }
+
+        assertSame(MetatypeResolver.getDefault().members(Child.class), MetatypeResolver.getDefault().members(Child.class));
+    }
+
+    public void testLookups() throws Exception {
+        final MetaAnnotatedClass<Child> clazz = MetaAnnotatedClass.of(Child.class);
+
+        assertEquals(Child.class.getMethod("size"), clazz.getMethod("size").get());
+        assertEquals(Child.class.getMethod("size", int.class), clazz.getMethod("size", int.class).get());
+        assertEquals(Child.class.getMethod("get"), clazz.getMethod("get").get());
+        assertEquals(Child.class.getDeclaredMethod("get"), clazz.getDeclaredMethod("get").get());
+        assertEquals(Child.class.getField("name"), clazz.getField("name").get());
+        assertEquals(Child.class.getDeclaredField("count"), clazz.getDeclaredField("count").get());
+        assertEquals(Child.class.getConstructor(String.class), clazz.getConstructor(String.class).get());
+        assertEquals(Child.class.getDeclaredConstructor(), clazz.getDeclaredConstructor().get());
+
+        assertSame(clazz.getMethod("size"), clazz.getMethod("size"));
+        assertSame(clazz.getDeclaredField("count"), clazz.getDeclaredField("count"));
+
+        try {
+            clazz.getMethod("missing");
+            fail("NoSuchMethodException expected");
+        } catch (NoSuchMethodException e) {
+            // pass
+        }
+
+        try {
+            clazz.getDeclaredField("missing");
+            fail("NoSuchFieldException expected");
+        } catch (NoSuchFieldException e) {
+            // pass
+        }
+    }
+
+    public static class Parent {
+        public Object name;
+
+        public Object get() {
+            return null;
+        }
+    }
+
+    public static class Child extends Parent {
+        public String name;
+
+        private int count;
+
+        Child() {
+        }
+
+        public Child(String name) {
+        }
+
+        // covariant, so getMethods() holds a bridge with the same parameters
+        public String get() {
+            return null;
+        }
+
+        public int size() {
+            return 0;
+        }
+
+        public int size(int scale) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metatype;
+
+/**
+ * @author David Blevins
+ */
+public class MetaAnnotatedObjectTest extends TestCase {
+
+    public void testLazy() throws Exception {
+        final MetaAnnotatedClass<Square> clazz = new MetaAnnotatedClass<Square>(Square.class);
+        assertFalse(clazz.isResolved());
+
+        final MetaAnnotatedMethod[] methods = clazz.getDeclaredMethods();
+        assertEquals(1, methods.length);
+
+        final MetaAnnotatedMethod method = methods[0];
+        assertFalse(clazz.isResolved());
+        assertFalse(method.isResolved());
+
+        assertEquals("red", clazz.getAnnotation(Color.class).value());
+        assertTrue(clazz.isResolved());
+        assertFalse(method.isResolved());
+
+        final Annotation[][] parameters = method.getParameterAnnotations();
+        assertFalse(method.isResolved());
+        assertEquals(2, parameters.length);
+        assertEquals(2, parameters[0].length);
+        assertEquals(0, parameters[1].length);
+        assertNotSame(parameters, method.getParameterAnnotations());
+        assertSame(parameters[0][0], method.getParameterAnnotations()[0][0]);
+
+        assertEquals("red", method.getAnnotation(Color.class).value());
+        assertTrue(method.isResolved());
+    }
+
+    @Target(value = {TYPE, METHOD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Color {
+        String value() default "";
+    }
+
+    @Metatype
+    @Color("red")
+    @Target(value = {TYPE, METHOD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Red {
+    }
+
+    @Red
+    public static class Square {
+
+        @Red
+        public void paint(@Red Object brush, Object canvas) {
+        }
+    }
+}
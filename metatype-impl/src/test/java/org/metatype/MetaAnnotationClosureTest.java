@@ -0,0 +1,158 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metatype;
+
+/**
+ * Closures are computed once per annotation type and merged
+ * into each element at the depth of the declaring annotation.
+ *
+ * @author David Blevins
+ */
+public class MetaAnnotationClosureTest extends TestCase {
+
+    public void testCached() throws Exception {
+        assertSame(MetaAnnotationClosure.of(Left.class), MetaAnnotationClosure.of(Left.class));
+    }
+
+    public void testDiamond() throws Exception {
+        final MetaAnnotatedClass<Diamond> annotated = new MetaAnnotatedClass<Diamond>(Diamond.class);
+
+        final MetaAnnotation<Shape> shape = find(annotated, Shape.class);
+        assertEquals(1, shape.getDepth());
+        assertEquals(1, shape.getConflicts().size());
+
+        // reached through both roots, but it is one and the same annotation
+        final MetaAnnotation<Color> color = find(annotated, Color.class);
+        assertEquals(2, color.getDepth());
+        assertEquals(0, color.getConflicts().size());
+        assertEquals("blue", annotated.getAnnotation(Color.class).value());
+    }
+
+    public void testOffset() throws Exception {
+        final MetaAnnotatedClass<Nested> annotated = new MetaAnnotatedClass<Nested>(Nested.class);
+
+        assertEquals(0, find(annotated, Outer.class).getDepth());
+        assertEquals(1, find(annotated, Left.class).getDepth());
+        assertEquals(2, find(annotated, Shape.class).getDepth());
+        assertEquals(3, find(annotated, Color.class).getDepth());
+    }
+
+    public void testVisitedOnce() throws Exception {
+        // Top, Left, Right and Shape, Shape reached twice at the same depth is still expanded once
+        final MetaAnnotationClosure diamond = MetaAnnotationClosure.of(Top.class);
+        assertEquals(4, diamond.getVisits());
+        assertEquals(0, diamond.getRevisits());
+
+        final MetaAnnotationClosure cycle = MetaAnnotationClosure.of(Ping.class);
+        assertEquals(2, cycle.getVisits());
+        assertEquals(1, cycle.getRevisits());
+    }
+
+    public void testCycle() throws Exception {
+        final MetaAnnotatedClass<Cycle> annotated = new MetaAnnotatedClass<Cycle>(Cycle.class);
+
+        assertEquals(2, annotated.getAnnotations().length);
+        assertEquals(0, find(annotated, Ping.class).getDepth());
+        assertEquals(1, find(annotated, Pong.class).getDepth());
+    }
+
+    private static <A extends java.lang.annotation.Annotation> MetaAnnotation<A> find(MetaAnnotated<?> annotated, Class<A> type) {
+        for (MetaAnnotation<?> metaAnnotation : annotated.getMetaAnnotations()) {
+            if (metaAnnotation.get().annotationType() == type) return (MetaAnnotation<A>) metaAnnotation;
+        }
+        fail("Not found " + type.getName());
+        return null;
+    }
+
+    @Target(value = {TYPE})
+    @Retention(value = RUNTIME)
+    public static @interface Color {
+        String value() default "";
+    }
+
+    @Metatype
+    @Color("blue")
+    @Target(value = {TYPE})
+    @Retention(value = RUNTIME)
+    public static @interface Shape {
+    }
+
+    @Metatype
+    @Shape
+    @Target(value = {TYPE})
+    @Retention(value = RUNTIME)
+    public static @interface Left {
+    }
+
+    @Metatype
+    @Shape
+    @Target(value = {TYPE})
+    @Retention(value = RUNTIME)
+    public static @interface Right {
+    }
+
+    @Metatype
+    @Left
+    @Target(value = {TYPE})
+    @Retention(value = RUNTIME)
+    public static @interface Outer {
+    }
+
+    @Left
+    @Right
+    public static class Diamond {
+    }
+
+    @Outer
+    public static class Nested {
+    }
+
+    @Metatype
+    @Left
+    @Right
+    @Target(value = {TYPE})
+    @Retention(value = RUNTIME)
+    public static @interface Top {
+    }
+
+    @Metatype
+    @Pong
+    @Target(value = {TYPE})
+    @Retention(value = RUNTIME)
+    public static @interface Ping {
+    }
+
+    @Metatype
+    @Ping
+    @Target(value = {TYPE})
+    @Retention(value = RUNTIME)
+    public static @interface Pong {
+    }
+
+    @Ping
+    public static class Cycle {
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metatype;
+
+/**
+ * @author David Blevins
+ */
+public class MetaAnnotationHolderTest extends TestCase {
+
+    public void testHolder() throws Exception {
+        final MetaAnnotationHolder holder = MetaAnnotationHolder.of(Red.class);
+
+        assertTrue(holder.exists());
+        assertEquals(Red.$.class, holder.getHolder());
+
+        // the method group and the parameter group, but not the unrelated method
+        assertEquals(2, holder.getGroups().size());
+
+        for (Annotation[] group : holder.getGroups()) {
+            assertEquals(2, group.length);
+        }
+
+        assertSame(holder, MetaAnnotationHolder.of(Red.class));
+    }
+
+    public void testNoHolder() throws Exception {
+        final MetaAnnotationHolder holder = MetaAnnotationHolder.of(Color.class);
+
+        assertFalse(holder.exists());
+        assertNull(holder.getHolder());
+        assertEquals(0, holder.getGroups().size());
+
+        assertSame(holder, MetaAnnotationHolder.of(Color.class));
+    }
+
+    @Target({METHOD, PARAMETER})
+    @Retention(RUNTIME)
+    public static @interface Color {
+        String value() default "";
+    }
+
+    @Metatype
+    @Target({METHOD, PARAMETER})
+    @Retention(RUNTIME)
+    public static @interface Red {
+        public interface $ {
+
+            @Red
+            @Color("red")
+            public void method(@Red @Color("red") Object object);
+
+            @Color("blue")
+            public void unrelated();
+        }
+    }
+}
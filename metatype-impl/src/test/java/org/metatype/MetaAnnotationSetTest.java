@@ -0,0 +1,161 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metatype;
+
+/**
+ * @author David Blevins
+ */
+public class MetaAnnotationSetTest extends TestCase {
+
+    public void testDepthOrdered() throws Exception {
+        final MetaAnnotatedClass<Small> annotated = new MetaAnnotatedClass<Small>(Small.class);
+
+        final Annotation[] annotations = annotated.getAnnotations();
+        assertEquals(3, annotations.length);
+        assertEquals(Crimson.class, annotations[0].annotationType());
+        assertEquals(Red.class, annotations[1].annotationType());
+        assertEquals(Color.class, annotations[2].annotationType());
+
+        int depth = 0;
+        for (MetaAnnotation<?> metaAnnotation : annotated.getMetaAnnotations()) {
+            assertEquals(depth++, metaAnnotation.getDepth());
+            assertEquals(0, metaAnnotation.getConflicts().size());
+        }
+
+        // a copy each time, the set itself cannot be changed
+        annotations[0] = null;
+        assertNotNull(annotated.getAnnotations()[0]);
+    }
+
+    public void testLarge() throws Exception {
+        final MetaAnnotatedClass<Large> annotated = new MetaAnnotatedClass<Large>(Large.class);
+
+        final Class[] types = {A.class, B.class, C.class, D.class, E.class, F.class, G.class, H.class, I.class, J.class, Crimson.class, Red.class, Color.class};
+
+        assertEquals(types.length, annotated.getAnnotations().length);
+
+        for (Class type : types) {
+            assertTrue(type.getName(), annotated.isAnnotationPresent(type));
+            assertNotNull(type.getName(), annotated.getAnnotation(type));
+        }
+
+        assertFalse(annotated.isAnnotationPresent(Target.class));
+        assertNull(annotated.getAnnotation(Retention.class));
+        assertEquals("red", annotated.getAnnotation(Color.class).value());
+    }
+
+    public void testShared() throws Exception {
+        final MetaAnnotatedClass<Shared> clazz = new MetaAnnotatedClass<Shared>(Shared.class);
+
+        final MetaAnnotationSet one = clazz.getMethod("one").getMetaAnnotationSet();
+        final MetaAnnotationSet two = clazz.getMethod("two").getMetaAnnotationSet();
+        final MetaAnnotationSet three = clazz.getMethod("three").getMetaAnnotationSet();
+        final MetaAnnotationSet four = clazz.getMethod("four").getMetaAnnotationSet();
+
+        // same declared annotations, same set
+        assertSame(one, two);
+        assertSame(one, clazz.getMetaAnnotationSet());
+
+        // declared differently, but resolving to the same configuration
+        assertNotSame(three, four);
+        assertEquals(three, four);
+        assertEquals(three.hashCode(), four.hashCode());
+
+        assertFalse(one.equals(three));
+    }
+
+    public void testEmpty() throws Exception {
+        final MetaAnnotatedClass<MetaAnnotationSetTest> annotated = new MetaAnnotatedClass<MetaAnnotationSetTest>(MetaAnnotationSetTest.class);
+        assertEquals(0, annotated.getAnnotations().length);
+        assertEquals(0, annotated.getMetaAnnotations().size());
+        assertFalse(annotated.isAnnotationPresent(Color.class));
+    }
+
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Color {
+        String value() default "";
+    }
+
+    @Metatype
+    @Color("red")
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Red {
+    }
+
+    @Metatype
+    @Red
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Crimson {
+    }
+
+    @Crimson
+    public static class Small {
+    }
+
+    @Crimson
+    public static class Shared {
+
+        @Crimson
+        public void one() {
+        }
+
+        @Crimson
+        public void two() {
+        }
+
+        @Red
+        @A
+        public void three() {
+        }
+
+        @A
+        @Red
+        public void four() {
+        }
+    }
+
+    @Target(value = {TYPE, METHOD})
+    @Retention(RUNTIME) public static @interface A {}
+    @Retention(RUNTIME) public static @interface B {}
+    @Retention(RUNTIME) public static @interface C {}
+    @Retention(RUNTIME) public static @interface D {}
+    @Retention(RUNTIME) public static @interface E {}
+    @Retention(RUNTIME) public static @interface F {}
+    @Retention(RUNTIME) public static @interface G {}
+    @Retention(RUNTIME) public static @interface H {}
+    @Retention(RUNTIME) public static @interface I {}
+    @Retention(RUNTIME) public static @interface J {}
+
+    @A @B @C @D @E @F @G @H @I @J
+    @Crimson
+    public static class Large {
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metatype;
+
+/**
+ * Resolved models are frozen and can be shared as they are
+ *
+ * @author David Blevins
+ */
+public class MetaAnnotationTest extends TestCase {
+
+    public void testConflictsFrozen() throws Exception {
+        final MetaAnnotation<Color> color = MetaAnnotatedClass.of(Clash.class).getMetaAnnotationSet().get(Color.class);
+
+        assertEquals(1, color.getConflicts().size());
+
+        try {
+            color.getConflicts().clear();
+            fail("conflicts should be read-only");
+        } catch (UnsupportedOperationException expected) {
+            // pass
+        }
+
+        try {
+            color.addConflict(new MetaAnnotation<Color>(color.get(), 1));
+            fail("resolved annotations should not change");
+        } catch (IllegalStateException expected) {
+            // pass
+        }
+
+        assertEquals(1, Metatypes.find(Clash.class, Color.class).getConflicts().size());
+        assertEquals(1, color.getConflicts().size());
+    }
+
+    public void testParameters() throws Exception {
+        final MetaAnnotatedMethod paint = MetaAnnotatedClass.of(Clash.class).getMethod("paint", String.class, String.class);
+
+        assertEquals("red", paint.getParameterAnnotation(0, Color.class).value());
+        assertTrue(paint.isParameterAnnotationPresent(0, Red.class));
+        assertNull(paint.getParameterAnnotation(1, Color.class));
+        assertFalse(paint.isParameterAnnotationPresent(1, Red.class));
+        assertEquals(2, paint.getParameterMetaAnnotationSet(0).size());
+
+        // the arrays handed out are copies
+        final Annotation[][] parameters = paint.getParameterAnnotations();
+        parameters[0][0] = null;
+        parameters[1] = null;
+
+        assertNotNull(paint.getParameterAnnotations()[0][0]);
+        assertNotNull(paint.getParameterAnnotations()[1]);
+    }
+
+    @Target(value = {TYPE, METHOD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Color {
+        String value() default "";
+    }
+
+    @Metatype
+    @Color("red")
+    @Target(value = {TYPE, METHOD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Red {
+    }
+
+    @Metatype
+    @Color("scarlet")
+    @Target(value = {TYPE, METHOD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Scarlet {
+    }
+
+    @Scarlet
+    @Red
+    public static class Clash {
+
+        public void paint(@Red String color, String name) {
+        }
+    }
+}
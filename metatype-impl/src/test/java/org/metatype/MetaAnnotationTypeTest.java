@@ -0,0 +1,115 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metaroot;
+import javax.annotation.Metatype;
+
+/**
+ * @author David Blevins
+ */
+public class MetaAnnotationTypeTest extends TestCase {
+
+    public void testDescriptor() throws Exception {
+        final MetaAnnotationType red = MetaAnnotationType.of(Red.class);
+
+        assertSame(red, MetaAnnotationType.of(Red.class));
+        assertEquals(Red.class, red.getType());
+        assertTrue(red.isMetaAnnotation());
+        assertFalse(red.isMetatypeAnnotation());
+        assertEquals(Metatype.class, red.getMetatype());
+
+        final MetaAnnotationType color = MetaAnnotationType.of(Color.class);
+        assertFalse(color.isMetaAnnotation());
+        assertNull(color.getMetatype());
+        assertEquals(0, color.getDeclaredMetaAnnotations().size());
+    }
+
+    public void testMarkers() throws Exception {
+        assertTrue(MetaAnnotationType.of(Metatype.class).isMetatypeAnnotation());
+        assertFalse(MetaAnnotationType.of(Metatype.class).isMetaAnnotation());
+        assertTrue(MetaAnnotationType.of(Stereotype.class).isMetatypeAnnotation());
+        assertTrue(MetaAnnotationType.of(Metaroot.class).isAnnotationTypeOnly());
+        assertTrue(MetaAnnotationType.of(Blue.class).isMetaAnnotation());
+        assertEquals(Stereotype.class, MetaAnnotationType.of(Blue.class).getMetatype());
+    }
+
+    public void testAnnotationTypeOnlyNotCarried() throws Exception {
+        final Annotation[] annotations = new MetaAnnotatedClass<Square>(Square.class).getAnnotations();
+
+        assertEquals(2, annotations.length);
+        assertTrue(contains(Red.class, annotations));
+        assertTrue(contains(Color.class, annotations));
+
+        assertFalse(contains(Inherited.class, annotations));
+        assertFalse(contains(Documented.class, annotations));
+        assertFalse(contains(Target.class, annotations));
+        assertFalse(contains(Retention.class, annotations));
+        assertFalse(contains(Metatype.class, annotations));
+    }
+
+    private boolean contains(Class<? extends Annotation> type, Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (type.isAssignableFrom(annotation.annotationType())) return true;
+        }
+        return false;
+    }
+
+    @Metaroot
+    @Target(ElementType.ANNOTATION_TYPE)
+    @Retention(RUNTIME)
+    public static @interface Stereotype {
+    }
+
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Color {
+        String value() default "";
+    }
+
+    @Metatype
+    @Inherited
+    @Documented
+    @Color("red")
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Red {
+    }
+
+    @Stereotype
+    @Color("blue")
+    @Target(value = {TYPE})
+    @Retention(value = RUNTIME)
+    public static @interface Blue {
+    }
+
+    @Red
+    public static class Square {
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metatype;
+
+/**
+ * @author David Blevins
+ */
+public class MetatypeResolverTest extends TestCase {
+
+    private static final String MODULE = MetatypeResolverTest.class.getName() + "$Module";
+
+    public void testIsolated() throws Exception {
+        final MetatypeResolver resolver = MetatypeResolver.create();
+
+        final MetaAnnotatedClass<Square> square = resolver.of(Square.class);
+
+        assertSame(square, resolver.of(Square.class));
+        assertNotSame(square, MetaAnnotatedClass.of(Square.class));
+        assertNotSame(square, MetatypeResolver.create().of(Square.class));
+
+        // the same answers as the default resolver
+        assertEquals(MetaAnnotatedClass.of(Square.class).getMetaAnnotationSet(), square.getMetaAnnotationSet());
+    }
+
+    public void testNavigation() throws Exception {
+        final MetatypeResolver resolver = MetatypeResolver.create();
+
+        final MetaAnnotatedMethod paint = resolver.of(Square.class).getMethod("paint");
+
+        assertSame(resolver, paint.getResolver());
+        assertSame(paint, resolver.of(Square.class.getMethod("paint")));
+        assertSame(MetatypeResolver.getDefault(), MetaAnnotatedClass.of(Square.class).getMethod("paint").getResolver());
+    }
+
+    public void testFilter() throws Exception {
+        final MetatypeResolver resolver = MetatypeResolver.create().withFilter(AnnotationFilter.interestedIn(Color.class));
+
+        final MetaAnnotatedClass<Square> square = resolver.of(Square.class);
+
+        assertTrue(square.isAnnotationPresent(Color.class));
+        assertFalse(square.isAnnotationPresent(Red.class));
+        assertEquals(1, square.getAnnotations().length);
+    }
+
+    public void testConflictPolicy() throws Exception {
+        final MetaAnnotation<Color> kept = MetatypeResolver.create().of(Clash.class).getMetaAnnotationSet().get(Color.class);
+        assertEquals(1, kept.getConflicts().size());
+
+        final MetatypeResolver first = MetatypeResolver.create().withConflictPolicy(ConflictPolicy.FIRST);
+        final MetaAnnotation<Color> color = first.of(Clash.class).getMetaAnnotationSet().get(Color.class);
+
+        assertSame(kept.get(), color.get());
+        assertTrue(color.getConflicts().isEmpty());
+
+        final MetatypeResolver fail = MetatypeResolver.create().withConflictPolicy(ConflictPolicy.FAIL);
+
+        // no conflict, no failure
+        assertTrue(fail.of(Square.class).isAnnotationPresent(Color.class));
+
+        try {
+            fail.of(Clash.class).getAnnotations();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // pass
+        }
+    }
+
+    public void testEager() throws Exception {
+        final MetatypeResolver lazy = MetatypeResolver.create();
+        assertFalse(lazy.of(Square.class).isResolved());
+
+        final MetatypeResolver eager = lazy.eager();
+        assertTrue(eager.of(Square.class).isResolved());
+        assertTrue(eager.of(Square.class).getMethod("paint").isResolved());
+    }
+
+    public void testClose() throws Exception {
+        final MetatypeResolver resolver = MetatypeResolver.create();
+
+        final MetaAnnotatedClass<Square> square = resolver.of(Square.class);
+        assertTrue(square.isAnnotationPresent(Red.class));
+
+        resolver.close();
+
+        assertNotSame(square, resolver.of(Square.class));
+        assertTrue(square.isAnnotationPresent(Red.class));
+
+        try {
+            MetatypeResolver.getDefault().close();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // pass
+        }
+    }
+
+    public void testChild() throws Exception {
+        final MetatypeResolver application = MetatypeResolver.create();
+
+        final ClassLoader loader = new Module(getClass().getClassLoader());
+        final MetatypeResolver module = application.newChild(loader);
+
+        final Class<?> square = loader.loadClass(MODULE + "Square");
+        assertNotSame(ModuleSquare.class, square);
+
+        assertSame(application, module.getParent());
+        assertSame(loader, module.getClassLoader());
+        assertTrue(module.owns(square));
+        assertFalse(module.owns(Base.class));
+
+        // the module's own classes stay with the module
+        final MetaAnnotatedClass<?> annotated = module.of(square);
+        assertSame(module, annotated.getResolver());
+        assertSame(module, annotated.getMethod("fill").getResolver());
+        assertNotSame(annotated, application.of(square));
+
+        // shared classes, and what they declare, come from the parent
+        assertSame(application.of(Base.class), module.of(Base.class));
+        assertSame(application.of(Base.class.getMethod("paint")), annotated.getMethod("paint"));
+        assertSame(application.of(Base.class), annotated.getSuperclass());
+
+        // as do the sets resolved from the shared annotations
+        assertSame(application.of(Base.class).getMetaAnnotationSet(), annotated.getMetaAnnotationSet());
+    }
+
+    public void testSiblings() throws Exception {
+        final MetatypeResolver application = MetatypeResolver.create();
+
+        final MetatypeResolver web = application.newChild(new Module(getClass().getClassLoader()));
+        final MetatypeResolver ejb = application.newChild(new Module(getClass().getClassLoader()));
+
+        assertSame(web.of(Base.class), ejb.of(Base.class));
+
+        final MetaAnnotatedClass<?> square = web.of(web.getClassLoader().loadClass(MODULE + "Square"));
+
+        // closing a child leaves the parent and the other children be
+        final MetaAnnotatedClass<Base> base = application.of(Base.class);
+        web.close();
+
+        assertSame(base, ejb.of(Base.class));
+        assertSame(base, web.of(Base.class));
+        assertNotSame(square, web.of(square.get()));
+    }
+
+    public void testChildSettings() throws Exception {
+        final MetatypeResolver application = MetatypeResolver.create().withConflictPolicy(ConflictPolicy.FIRST);
+        final MetatypeResolver module = application.newChild(getClass().getClassLoader());
+
+        assertSame(ConflictPolicy.FIRST, module.getConflictPolicy());
+        assertSame(module.getCachePolicy(), application.getCachePolicy());
+
+        // a cache policy of its own is fine
+        assertSame(application, module.withCachePolicy(CachePolicy.bounded(10)).getParent());
+
+        try {
+            module.withConflictPolicy(ConflictPolicy.KEEP);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    /**
+     * Defines its own copy of the Module fixtures, parent-last, the way an
+     * application server gives each module a loader beneath a shared one
+     */
+    private static class Module extends ClassLoader {
+
+        private Module(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(MODULE) || name.equals(Module.class.getName())) return super.loadClass(name, resolve);
+
+            Class<?> loaded = findLoadedClass(name);
+
+            if (loaded == null) {
+                final byte[] bytes = read(name.replace('.', '/') + ".class");
+                loaded = defineClass(name, bytes, 0, bytes.length);
+            }
+
+            if (resolve) resolveClass(loaded);
+
+            return loaded;
+        }
+
+        private byte[] read(String resource) throws ClassNotFoundException {
+            final InputStream in = getParent().getResourceAsStream(resource);
+            if (in == null) throw new ClassNotFoundException(resource);
+
+            try {
+                try {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    final byte[] buffer = new byte[4096];
+
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+
+                    return out.toByteArray();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new ClassNotFoundException(resource, e);
+            }
+        }
+    }
+
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Color {
+        String value() default "";
+    }
+
+    @Metatype
+    @Color("red")
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Red {
+    }
+
+    @Metatype
+    @Color("scarlet")
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Scarlet {
+    }
+
+    @Red
+    public static class Square {
+
+        @Red
+        public void paint() {
+        }
+    }
+
+    @Scarlet
+    @Red
+    public static class Clash {
+    }
+
+    @Red
+    public static class Base {
+
+        @Red
+        public void paint() {
+        }
+    }
+
+    @Red
+    public static class ModuleSquare extends Base {
+
+        @Scarlet
+        public void fill() {
+        }
+    }
+}
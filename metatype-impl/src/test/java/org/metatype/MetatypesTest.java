@@ -0,0 +1,158 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metatype;
+
+/**
+ * @author David Blevins
+ */
+public class MetatypesTest extends TestCase {
+
+    public void testImplies() throws Exception {
+        assertTrue(Metatypes.implies(Crimson.class, Crimson.class));
+        assertTrue(Metatypes.implies(Crimson.class, Red.class));
+        assertTrue(Metatypes.implies(Crimson.class, Color.class));
+        assertTrue(Metatypes.implies(Red.class, Color.class));
+
+        assertFalse(Metatypes.implies(Color.class, Red.class));
+        assertFalse(Metatypes.implies(Red.class, Crimson.class));
+        assertFalse(Metatypes.implies(Crimson.class, Blue.class));
+
+        // the marker and the annotation type's own annotations are not implied
+        assertFalse(Metatypes.implies(Red.class, Metatype.class));
+        assertFalse(Metatypes.implies(Red.class, Target.class));
+    }
+
+    public void testDepth() throws Exception {
+        assertEquals(0, Metatypes.depth(Crimson.class, Crimson.class));
+        assertEquals(1, Metatypes.depth(Crimson.class, Red.class));
+        assertEquals(2, Metatypes.depth(Crimson.class, Color.class));
+        assertEquals(-1, Metatypes.depth(Crimson.class, Blue.class));
+
+        // the shortest path wins
+        assertEquals(1, Metatypes.depth(Scarlet.class, Color.class));
+    }
+
+    public void testFind() throws Exception {
+        final MetaAnnotation<Color> color = Metatypes.find(Square.class, Color.class);
+        assertEquals(2, color.getDepth());
+        assertEquals("red", color.get().value());
+        assertEquals(0, color.getConflicts().size());
+
+        final MetaAnnotation<Crimson> crimson = Metatypes.find(Square.class, Crimson.class);
+        assertEquals(0, crimson.getDepth());
+
+        assertNull(Metatypes.find(Square.class, Blue.class));
+        assertNull(Metatypes.find(Square.class, Scarlet.class));
+    }
+
+    public void testFindConflicts() throws Exception {
+        final MetaAnnotation<Color> color = Metatypes.find(Clash.class, Color.class);
+        assertEquals(1, color.getDepth());
+        assertEquals("scarlet", color.get().value());
+        assertEquals(1, color.getConflicts().size());
+        assertEquals("red", color.getConflicts().iterator().next().get().value());
+
+        // the same answer a full unroll gives
+        final MetaAnnotatedClass<Clash> annotated = new MetaAnnotatedClass<Clash>(Clash.class);
+        for (MetaAnnotation<?> metaAnnotation : annotated.getMetaAnnotations()) {
+            if (metaAnnotation.get().annotationType() != Color.class) continue;
+
+            assertSame(metaAnnotation.get(), color.get());
+            assertEquals(metaAnnotation.getDepth(), color.getDepth());
+            assertEquals(metaAnnotation.getConflicts().size(), color.getConflicts().size());
+        }
+    }
+
+    public void testElements() throws Exception {
+        final Method paint = Square.class.getMethod("paint", String.class);
+
+        assertTrue(Metatypes.isAnnotationPresent(Square.class, Color.class));
+        assertEquals("red", Metatypes.getAnnotation(Square.class, Color.class).value());
+        assertEquals("red", Metatypes.getAnnotation(paint, Metatypes.key(Color.class)).value());
+        assertFalse(Metatypes.isAnnotationPresent(paint, Crimson.class));
+        assertNull(Metatypes.getAnnotation(paint, Blue.class));
+
+        assertEquals(3, Metatypes.getAnnotations(Square.class).length);
+
+        // resolved once and held
+        assertSame(Metatypes.getMetaAnnotationSet(paint), Metatypes.getMetaAnnotationSet(paint));
+        assertSame(MetaAnnotatedMethod.of(paint).getMetaAnnotationSet(), Metatypes.getMetaAnnotationSet(paint));
+
+        final Annotation[][] parameters = Metatypes.getParameterAnnotations(paint);
+        assertEquals(1, parameters.length);
+        assertEquals(3, parameters[0].length);
+    }
+
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Color {
+        String value() default "";
+    }
+
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Blue {
+    }
+
+    @Metatype
+    @Color("red")
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Red {
+    }
+
+    @Metatype
+    @Red
+    @Target(value = {TYPE, METHOD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Crimson {
+    }
+
+    @Metatype
+    @Crimson
+    @Color("scarlet")
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Scarlet {
+    }
+
+    @Crimson
+    public static class Square {
+
+        @Red
+        public void paint(@Crimson String color) {
+        }
+    }
+
+    @Scarlet
+    @Red
+    public static class Clash {
+    }
+}
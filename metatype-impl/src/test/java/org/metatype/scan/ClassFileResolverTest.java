@@ -0,0 +1,261 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metatype;
+
+import org.metatype.MetaAnnotatedClass;
+import org.metatype.MetaAnnotatedMethod;
+import org.metatype.MetaAnnotation;
+
+/**
+ * The class file unroll must agree with the reflective one
+ *
+ * @author David Blevins
+ */
+public class ClassFileResolverTest extends TestCase {
+
+    private final ClassFileResolver resolver = new ClassFileResolver(ClassSource.of(getClass().getClassLoader()));
+
+    public void testSameAsReflection() throws Exception {
+        final String fixtures = "org.metatype.MetaAnnotatedClassTest$";
+
+        for (String name : new String[]{"Square", "Circle", "Triangle", "None", "Fake", "Store", "Farm"}) {
+            assertSame(fixtures + name);
+        }
+
+        assertSame(Square.class.getName());
+        assertSame(Clash.class.getName());
+    }
+
+    public void testBootstrapSource() throws Exception {
+        // null is the bootstrap loader, as for the JDK's own classes
+        final ClassSource bootstrap = ClassSource.of(Deprecated.class.getClassLoader());
+
+        assertEquals(Deprecated.class.getName(), ClassFile.read(bootstrap.read(Deprecated.class.getName())).getName().replace('/', '.'));
+        assertNull(bootstrap.read(Square.class.getName()));
+    }
+
+    public void testCompositeClosesAll() throws Exception {
+        final List<String> closed = new ArrayList<String>();
+
+        final ClassSource composite = ClassSource.of(closing("first", closed, true), closing("second", closed, true), closing("third", closed, false));
+
+        try {
+            composite.close();
+            fail("the first failure should be rethrown");
+        } catch (IOException e) {
+            assertEquals("first", e.getMessage());
+        }
+
+        assertEquals(Arrays.asList("first", "second", "third"), closed);
+    }
+
+    public void testHolder() throws Exception {
+        final Map<String, MetaAnnotationInfo> annotations = resolver.resolve(resolver.getClassFile(Square.class.getName()));
+
+        // carried forward from Red$$
+        assertEquals(2, annotations.get(Shade.class.getName()).getDepth());
+        assertEquals("dark", annotations.get(Shade.class.getName()).get().getValue("value"));
+
+        assertEquals(2, annotations.get(Color.class.getName()).getDepth());
+        assertEquals("red", annotations.get(Color.class.getName()).get().getValue("value"));
+
+        // @Target and @Retention describe only the annotation type
+        assertFalse(annotations.containsKey(Target.class.getName()));
+        assertFalse(annotations.containsKey(Metatype.class.getName()));
+    }
+
+    public void testConflicts() throws Exception {
+        final MetaAnnotationInfo color = resolver.resolve(resolver.getClassFile(Clash.class.getName())).get(Color.class.getName());
+
+        assertEquals(2, color.getDepth());
+        assertEquals(1, color.getConflicts().size());
+    }
+
+    public void testParameters() throws Exception {
+        final MemberInfo paint = find(resolver.getClassFile(Square.class.getName()), "paint");
+
+        final List<Map<String, MetaAnnotationInfo>> parameters = resolver.resolveParameters(paint);
+
+        final Method method = Square.class.getMethod("paint", String.class);
+        final MetaAnnotatedMethod reflected = MetaAnnotatedMethod.of(method);
+
+        assertEquals(1, parameters.size());
+        assertEquals(reflected.getParameterAnnotations()[0].length, parameters.get(0).size());
+        assertTrue(parameters.get(0).containsKey(Color.class.getName()));
+
+        assertEquals(depths(reflected.getMetaAnnotations()), depths(resolver.resolve(paint).values()));
+    }
+
+    public void testMetaAnnotation() throws Exception {
+        assertTrue(resolver.isMetaAnnotation(Red.class.getName()));
+        assertFalse(resolver.isMetaAnnotation(Color.class.getName()));
+        assertFalse(resolver.isMetaAnnotation("org.acme.Missing"));
+
+        assertTrue(resolver.getTargets(Color.class.getName()).contains(ElementType.PARAMETER));
+        assertNull(resolver.getTargets("org.acme.Missing"));
+    }
+
+    public void testMissing() throws Exception {
+        assertNull(resolver.getClassFile("org.acme.Missing"));
+
+        // without its annotation types there is nothing to unroll, what is declared remains
+        final ClassFileResolver alone = new ClassFileResolver(new ClassSource() {
+            @Override
+            public ByteBuffer read(String className) throws IOException {
+                return className.equals(Square.class.getName()) ? resolver.getSource().read(className) : null;
+            }
+        });
+
+        final Map<String, MetaAnnotationInfo> annotations = alone.resolve(alone.getClassFile(Square.class.getName()));
+
+        assertEquals(Collections.singleton(Crimson.class.getName()), annotations.keySet());
+    }
+
+    private static ClassSource closing(final String name, final List<String> closed, final boolean fail) {
+        return new ClassSource() {
+            @Override
+            public ByteBuffer read(String className) {
+                return null;
+            }
+
+            @Override
+            public void close() throws IOException {
+                closed.add(name);
+                if (fail) throw new IOException(name);
+            }
+        };
+    }
+
+    private void assertSame(String className) throws Exception {
+        final Class<?> clazz = getClass().getClassLoader().loadClass(className);
+
+        final Map<String, String> expected = depths(MetaAnnotatedClass.of(clazz).getMetaAnnotations());
+        final Map<String, String> actual = depths(resolver.resolve(resolver.getClassFile(className)).values());
+
+        assertEquals(className, expected, actual);
+    }
+
+    /**
+     * Type, depth and number of conflicts of each
+     */
+    private static Map<String, String> depths(Iterable<?> metaAnnotations) {
+        final Map<String, String> map = new TreeMap<String, String>();
+
+        for (Object object : metaAnnotations) {
+            if (object instanceof MetaAnnotation) {
+                final MetaAnnotation<?> metaAnnotation = (MetaAnnotation<?>) object;
+                map.put(metaAnnotation.get().annotationType().getName(), metaAnnotation.getDepth() + "/" + metaAnnotation.getConflicts().size());
+            } else {
+                final MetaAnnotationInfo metaAnnotation = (MetaAnnotationInfo) object;
+                map.put(metaAnnotation.getType(), metaAnnotation.getDepth() + "/" + metaAnnotation.getConflicts().size());
+            }
+        }
+
+        return map;
+    }
+
+    private static MemberInfo find(ClassFile classFile, String name) {
+        final List<String> names = new ArrayList<String>();
+
+        for (MemberInfo method : classFile.getMethods()) {
+            if (method.getName().equals(name)) return method;
+            names.add(method.getName());
+        }
+
+        throw new AssertionError(name + " not in " + names);
+    }
+
+    @Target(value = {TYPE, METHOD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Color {
+        String value() default "";
+    }
+
+    @Target(value = {TYPE, METHOD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Shade {
+        String value() default "";
+    }
+
+    @Metatype
+    @Color("red")
+    @Target(value = {TYPE, METHOD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Red {
+        public interface $ {
+
+            @Red
+            @Shade("dark")
+            public void method();
+        }
+    }
+
+    @Metatype
+    @Color("scarlet")
+    @Target(value = {TYPE, METHOD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Scarlet {
+    }
+
+    @Metatype
+    @Red
+    @Scarlet
+    @Target(value = {TYPE, METHOD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Clashing {
+    }
+
+    @Metatype
+    @Red
+    @Target(value = {TYPE, METHOD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Crimson {
+    }
+
+    @Crimson
+    public static class Square {
+
+        @Crimson
+        public void paint(@Red String brush) {
+        }
+    }
+
+    @Clashing
+    public static class Clash {
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import static java.lang.annotation.ElementType.CONSTRUCTOR;
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.CLASS;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.io.InputStream;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * @author David Blevins
+ */
+public class ClassFileTest extends TestCase {
+
+    public void testClass() throws Exception {
+        final ClassFile classFile = read(Sample.class);
+
+        assertEquals(Sample.class.getName(), classFile.getName());
+        assertEquals(Object.class.getName(), classFile.getSuperName());
+        assertEquals(Arrays.asList(Runnable.class.getName()), classFile.getInterfaces());
+        assertFalse(classFile.isInterface());
+        assertFalse(classFile.isAnnotation());
+
+        // the CLASS retention annotation is not visible at runtime
+        assertEquals(1, classFile.getAnnotations().size());
+
+        final AnnotationInfo values = classFile.getAnnotations().get(0);
+        assertEquals(Values.class.getName(), values.getType());
+
+        assertEquals("text", values.getValue("string"));
+        assertEquals(42, values.getValue("number"));
+        assertEquals(Long.MAX_VALUE, values.getValue("big"));
+        assertEquals(1.5d, values.getValue("real"));
+        assertEquals('x', values.getValue("letter"));
+        assertEquals(true, values.getValue("flag"));
+        assertEquals(new AnnotationInfo.ClassLiteral("java.lang.String[]"), values.getValue("type"));
+        assertEquals(new AnnotationInfo.EnumConstant(ElementType.class.getName(), "FIELD"), values.getValue("element"));
+        assertEquals(Arrays.asList(1, 2, 3), values.getValue("numbers"));
+
+        // defaults are not in the class file
+        assertNull(values.getValue("unset"));
+
+        final AnnotationInfo nested = (AnnotationInfo) values.getValue("nested");
+        assertEquals(Marker.class.getName(), nested.getType());
+        assertEquals("inner", nested.getValue("value"));
+    }
+
+    public void testMembers() throws Exception {
+        final ClassFile classFile = read(Sample.class);
+
+        assertEquals(1, classFile.getFields().size());
+
+        final MemberInfo field = classFile.getFields().get(0);
+        assertTrue(field.isField());
+        assertEquals("name", field.getName());
+        assertEquals("Ljava/lang/String;", field.getDescriptor());
+        assertEquals(new AnnotationInfo(Marker.class.getName(), Collections.<String, Object>singletonMap("value", "field")), field.getAnnotations().get(0));
+
+        final MemberInfo constructor = find(classFile, "<init>");
+        assertTrue(constructor.isConstructor());
+        assertEquals("constructor", constructor.getAnnotations().get(0).getValue("value"));
+
+        final MemberInfo run = find(classFile, "run");
+        assertFalse(run.isConstructor());
+        assertEquals(0, run.getAnnotations().size());
+
+        final MemberInfo paint = find(classFile, "paint");
+        assertEquals("(Ljava/lang/String;I)V", paint.getDescriptor());
+
+        final List<List<AnnotationInfo>> parameters = paint.getParameterAnnotations();
+        assertEquals(2, parameters.size());
+        assertEquals("brush", parameters.get(0).get(0).getValue("value"));
+        assertEquals(0, parameters.get(1).size());
+    }
+
+    public void testAnnotationType() throws Exception {
+        final ClassFile classFile = read(Marker.class);
+
+        assertTrue(classFile.isAnnotation());
+        assertTrue(classFile.isInterface());
+        assertEquals(ClassFileTest.class.getName() + "$Marker", classFile.getName());
+    }
+
+    public void testTypeName() throws Exception {
+        assertEquals("java.lang.String", ClassFileParser.typeName("Ljava/lang/String;"));
+        assertEquals("int[][]", ClassFileParser.typeName("[[I"));
+        assertEquals("void", ClassFileParser.typeName("V"));
+    }
+
+    public void testInvalid() throws Exception {
+        try {
+            ClassFile.read(new byte[]{1, 2, 3, 4, 5, 6});
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+
+        final byte[] bytes = bytes(Sample.class);
+
+        try {
+            ClassFile.read(Arrays.copyOf(bytes, bytes.length / 2));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    private static MemberInfo find(ClassFile classFile, String name) {
+        for (MemberInfo method : classFile.getMethods()) {
+            if (method.getName().equals(name)) return method;
+        }
+        throw new AssertionError(name);
+    }
+
+    private static ClassFile read(Class<?> clazz) throws Exception {
+        return ClassFile.read(bytes(clazz));
+    }
+
+    private static byte[] bytes(Class<?> clazz) throws Exception {
+        final InputStream in = clazz.getClassLoader().getResourceAsStream(clazz.getName().replace('.', '/') + ".class");
+        try {
+            return ClassFile.readAll(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Target(value = {TYPE, METHOD, FIELD, CONSTRUCTOR, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Marker {
+        String value() default "";
+    }
+
+    @Target(value = {TYPE})
+    @Retention(value = CLASS)
+    public static @interface Invisible {
+    }
+
+    @Target(value = {TYPE})
+    @Retention(value = RUNTIME)
+    public static @interface Values {
+        String string();
+
+        int number();
+
+        long big();
+
+        double real();
+
+        char letter();
+
+        boolean flag();
+
+        Class<?> type();
+
+        ElementType element();
+
+        int[] numbers();
+
+        Marker nested();
+
+        String unset() default "";
+    }
+
+    @Invisible
+    @Values(string = "text", number = 42, big = Long.MAX_VALUE, real = 1.5, letter = 'x', flag = true,
+            type = String[].class, element = FIELD, numbers = {1, 2, 3}, nested = @Marker("inner"))
+    public static class Sample implements Runnable {
+
+        @Marker("field")
+        private String name;
+
+        @Marker("constructor")
+        public Sample() {
+        }
+
+        public void run() {
+        }
+
+        public void paint(@Marker("brush") String brush, int size) {
+        }
+    }
+}
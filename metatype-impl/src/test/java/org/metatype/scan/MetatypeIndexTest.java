@@ -0,0 +1,228 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.metatype.scan.MetatypeScannerTest.Daily;
+import org.metatype.scan.MetatypeScannerTest.Hourly;
+import org.metatype.scan.MetatypeScannerTest.Reports;
+import org.metatype.scan.MetatypeScannerTest.Schedule;
+import org.metatype.scan.MetatypeScannerTest.Timers;
+
+/**
+ * @author David Blevins
+ */
+public class MetatypeIndexTest extends TestCase {
+
+    private static final MetatypeScanner SCHEDULE = MetatypeScanner.interestedIn(Schedule.class);
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("metatype", ".idx");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testRoundTrip() throws Exception {
+        final List<ScannedElement> scanned = SCHEDULE.scan(classes());
+        final List<ScannedElement> indexed = SCHEDULE.index(file, classes()).getElements();
+
+        assertEquals(toStrings(scanned), toStrings(indexed));
+
+        for (int i = 0; i < scanned.size(); i++) {
+            final ScannedElement expected = scanned.get(i);
+            final ScannedElement actual = indexed.get(i);
+
+            assertEquals(expected.getKind(), actual.getKind());
+            assertEquals(expected.getLocation(), actual.getLocation());
+            assertEquals(expected.getParameter(), actual.getParameter());
+            assertEquals(new ArrayList<String>(expected.getAnnotations().keySet()), new ArrayList<String>(actual.getAnnotations().keySet()));
+
+            for (Map.Entry<String, MetaAnnotationInfo> entry : expected.getAnnotations().entrySet()) {
+                final MetaAnnotationInfo metaAnnotation = actual.getAnnotation(entry.getKey());
+
+                assertEquals(entry.getValue().get(), metaAnnotation.get());
+                assertEquals(entry.getValue().getDepth(), metaAnnotation.getDepth());
+                assertEquals(entry.getValue().getConflicts().size(), metaAnnotation.getConflicts().size());
+            }
+        }
+    }
+
+    public void testQueries() throws Exception {
+        final MetatypeIndex index = SCHEDULE.index(file, classes());
+
+        assertEquals(Arrays.asList(Schedule.class.getName()), new ArrayList<String>(index.getInterest()));
+        assertEquals(Arrays.asList(Daily.class.getName(), Hourly.class.getName(), Reports.class.getName(), Timers.class.getName()), index.getClassNames());
+
+        final List<ScannedElement> reports = index.getElements(Reports.class.getName());
+        assertEquals(3, reports.size());
+        assertEquals("report", reports.get(1).getMember().getName());
+        assertEquals(Daily.class.getName(), reports.get(1).getMember().getAnnotations().get(0).getType());
+        assertEquals("0 0 * * *", reports.get(1).getAnnotation(Schedule.class.getName()).get().getValue("value"));
+
+        assertEquals(6, index.getElementsAnnotatedWith(Schedule.class.getName()).size());
+        assertEquals(2, index.getElementsAnnotatedWith(Daily.class.getName()).size());
+        assertEquals(1, index.getElementsAnnotatedWith(Hourly.class.getName()).size());
+
+        assertTrue(index.getElements("org.acme.NoSuchClass").isEmpty());
+        assertTrue(index.getElementsAnnotatedWith("org.acme.NoSuchAnnotation").isEmpty());
+    }
+
+    public void testValues() throws Exception {
+        final List<ScannedElement> scanned = MetatypeScanner.interestedIn(Values.class).scan(classes());
+        final List<ScannedElement> indexed = MetatypeScanner.interestedIn(Values.class).index(file, classes()).getElements();
+
+        assertEquals(1, indexed.size());
+
+        final AnnotationInfo values = indexed.get(0).getAnnotation(Values.class.getName()).get();
+
+        assertEquals(scanned.get(0).getAnnotation(Values.class.getName()).get(), values);
+
+        assertEquals((byte) -3, values.getValue("b"));
+        assertEquals('x', values.getValue("c"));
+        assertEquals((short) -300, values.getValue("s"));
+        assertEquals(true, values.getValue("z"));
+        assertEquals(Integer.MIN_VALUE, values.getValue("i"));
+        assertEquals(Long.MAX_VALUE, values.getValue("j"));
+        assertEquals(1.5f, values.getValue("f"));
+        assertEquals(-2.25, values.getValue("d"));
+        assertEquals("été", values.getValue("string"));
+        assertEquals(new AnnotationInfo.EnumConstant(ElementType.class.getName(), "FIELD"), values.getValue("type"));
+        assertEquals(new AnnotationInfo.ClassLiteral("int[]"), values.getValue("clazz"));
+        assertEquals("0 0 * * *", ((AnnotationInfo) values.getValue("schedule")).getValue("value"));
+        assertEquals(Arrays.asList(1, 20000, -1), values.getValue("ints"));
+    }
+
+    public void testFingerprints() throws Exception {
+        final MetatypeIndex index = SCHEDULE.index(file, classes());
+
+        final ClassSource current = ClassSource.of(getClass().getClassLoader());
+        assertTrue(index.isCurrent(current));
+
+        final Map<String, Long> fingerprints = index.getFingerprints();
+        assertTrue(fingerprints.containsKey(Daily.class.getName()));
+        assertTrue(fingerprints.containsKey(Schedule.class.getName()));
+
+        // @Metatype, Daily's own meta-annotations, but none of the JDK's
+        assertTrue(fingerprints.containsKey("javax.annotation.Metatype"));
+        assertFalse(fingerprints.containsKey(Deprecated.class.getName()));
+        assertFalse(fingerprints.containsKey(Target.class.getName()));
+
+        // a changed definition
+        assertFalse(index.isCurrent(replacing(current, Daily.class.getName(), ByteBuffer.wrap(new byte[]{1, 2, 3}))));
+
+        // a missing one
+        assertFalse(index.isCurrent(replacing(current, Daily.class.getName(), null)));
+    }
+
+    public void testNotAnIndex() throws Exception {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[]{'P', 'K', 3, 4, 0, 0, 0, 0});
+        } finally {
+            out.close();
+        }
+
+        try {
+            MetatypeIndex.open(file);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // pass
+        }
+    }
+
+    private static ClassSource replacing(final ClassSource source, final String className, final ByteBuffer bytes) {
+        return new ClassSource() {
+            @Override
+            public ByteBuffer read(String name) throws IOException {
+                return name.equals(className) ? bytes : source.read(name);
+            }
+        };
+    }
+
+    private static List<String> toStrings(List<ScannedElement> elements) {
+        final List<String> strings = new ArrayList<String>();
+
+        for (ScannedElement element : elements) {
+            strings.add(element.toString());
+        }
+
+        return strings;
+    }
+
+    private static File classes() throws Exception {
+        return new File(MetatypeIndexTest.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    }
+
+    @Target(value = {METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Values {
+        byte b();
+
+        char c();
+
+        short s();
+
+        boolean z();
+
+        int i();
+
+        long j();
+
+        float f();
+
+        double d();
+
+        String string();
+
+        ElementType type();
+
+        Class<?> clazz();
+
+        Schedule schedule();
+
+        int[] ints();
+    }
+
+    public static class Valued {
+
+        @Values(b = -3, c = 'x', s = -300, z = true, i = Integer.MIN_VALUE, j = Long.MAX_VALUE, f = 1.5f, d = -2.25,
+                string = "été", type = ElementType.FIELD, clazz = int[].class, schedule = @Schedule("0 0 * * *"), ints = {1, 20000, -1})
+        public void run() {
+        }
+    }
+}
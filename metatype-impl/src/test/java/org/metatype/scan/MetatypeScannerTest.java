@@ -0,0 +1,358 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.scan;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metatype;
+
+import org.metatype.Metatypes;
+
+/**
+ * @author David Blevins
+ */
+public class MetatypeScannerTest extends TestCase {
+
+    private static final MetatypeScanner SCHEDULE = MetatypeScanner.interestedIn(Schedule.class);
+
+    public void testDirectory() throws Exception {
+        final List<ScannedElement> found = SCHEDULE.scan(classes());
+
+        assertEquals(expected(), toStrings(found));
+
+        final ScannedElement report = found.get(3);
+        assertEquals(ScannedElement.Kind.METHOD, report.getKind());
+        assertEquals("report", report.getMember().getName());
+        assertEquals(classes(), report.getLocation());
+
+        final MetaAnnotationInfo schedule = report.getAnnotation(Schedule.class.getName());
+        assertEquals(1, schedule.getDepth());
+        assertEquals("0 0 * * *", schedule.get().getValue("value"));
+        assertTrue(report.isAnnotationPresent(Daily.class.getName()));
+
+        // agrees with the reflective unroll
+        assertTrue(Metatypes.isAnnotationPresent(Reports.class.getMethod("report"), Schedule.class));
+        assertFalse(Metatypes.isAnnotationPresent(Reports.class.getMethod("unscheduled"), Schedule.class));
+    }
+
+    public void testJar() throws Exception {
+        final File jar = jar(Reports.class, Timers.class, Unscheduled.class, Daily.class, Hourly.class, Schedule.class);
+
+        try {
+            final List<ScannedElement> found = SCHEDULE.withParallelism(2).scan(jar);
+
+            assertEquals(expected(), toStrings(found));
+            assertEquals(jar, found.get(0).getLocation());
+        } finally {
+            jar.delete();
+        }
+    }
+
+    public void testNestedJars() throws Exception {
+        final File library = jar(Timers.class, Daily.class, Schedule.class);
+        final File deflated = jar(Hourly.class);
+
+        // a Spring Boot style jar, one library stored and one deflated
+        final File boot = File.createTempFile("scanner", ".jar");
+
+        try {
+            final JarOutputStream out = new JarOutputStream(new FileOutputStream(boot));
+            try {
+                write(out, "BOOT-INF/classes/" + Archive.resource(Reports.class.getName()), bytes(Reports.class), false);
+                write(out, "BOOT-INF/lib/library.jar", readFile(library), true);
+                write(out, "BOOT-INF/lib/deflated.jar", readFile(deflated), false);
+            } finally {
+                out.close();
+            }
+
+            final List<ScannedElement> found = SCHEDULE.withLibraries(ClassSource.of(new File[0])).scan(boot);
+
+            assertEquals(expected(), toStrings(found));
+            assertEquals(boot, found.get(0).getLocation());
+
+            // classes are found by name in the nested jars too
+            final ClassSource source = ClassSource.of(boot);
+            try {
+                assertEquals(Timers.class.getName(), ClassFile.read(source.read(Timers.class.getName())).getName().replace('/', '.'));
+                assertEquals(Reports.class.getName(), ClassFile.read(source.read(Reports.class.getName())).getName().replace('/', '.'));
+                assertNull(source.read(Unscheduled.class.getName()));
+            } finally {
+                source.close();
+            }
+        } finally {
+            boot.delete();
+            library.delete();
+            deflated.delete();
+        }
+    }
+
+    public void testNestedJarsOpenedLazily() throws Exception {
+        final File library = jar(Timers.class, Daily.class, Schedule.class);
+        final File deflated = jar(Hourly.class);
+        final File boot = File.createTempFile("scanner", ".jar");
+
+        try {
+            final JarOutputStream out = new JarOutputStream(new FileOutputStream(boot));
+            try {
+                write(out, "BOOT-INF/lib/library.jar", readFile(library), true);
+                write(out, "BOOT-INF/lib/deflated.jar", readFile(deflated), false);
+            } finally {
+                out.close();
+            }
+
+            final Archive.Jar jar = new Archive.Jar(boot);
+            final List<Archive.Nested> nested = jar.getNestedJars();
+
+            assertEquals(2, nested.size());
+            assertEquals(boot.getPath() + "!/BOOT-INF/lib/deflated.jar", nested.get(1).getPath());
+
+            // read in place and kept
+            assertSame(nested.get(0).open(), nested.get(0).open());
+
+            // inflated afresh each time, held by no one but the caller
+            assertNotSame(nested.get(1).open(), nested.get(1).open());
+
+            assertNotNull(jar.read(Archive.resource(Hourly.class.getName())));
+            assertNotNull(jar.read(Archive.resource(Timers.class.getName())));
+            assertNull(jar.read(Archive.resource(Reports.class.getName())));
+        } finally {
+            boot.delete();
+            library.delete();
+            deflated.delete();
+        }
+    }
+
+    public void testLaunchScript() throws Exception {
+        final File library = jar(Timers.class, Daily.class, Schedule.class);
+        final File deflated = jar(Hourly.class);
+        final File boot = File.createTempFile("scanner", ".jar");
+
+        try {
+            // a fully executable jar, the archive after a shell script
+            final FileOutputStream file = new FileOutputStream(boot);
+            try {
+                file.write("#!/bin/bash\nexec java -jar \"$0\" \"$@\"\n".getBytes("UTF-8"));
+
+                final JarOutputStream out = new JarOutputStream(file);
+                try {
+                    write(out, "BOOT-INF/classes/" + Archive.resource(Reports.class.getName()), bytes(Reports.class), false);
+                    write(out, "BOOT-INF/lib/library.jar", readFile(library), true);
+                    write(out, "BOOT-INF/lib/deflated.jar", readFile(deflated), false);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                file.close();
+            }
+
+            final List<ScannedElement> found = SCHEDULE.withLibraries(ClassSource.of(new File[0])).scan(boot);
+
+            assertEquals(expected(), toStrings(found));
+            assertEquals(boot, found.get(0).getLocation());
+
+            final ClassSource source = ClassSource.of(boot);
+            try {
+                assertEquals(Timers.class.getName(), ClassFile.read(source.read(Timers.class.getName())).getName().replace('/', '.'));
+                assertEquals(Reports.class.getName(), ClassFile.read(source.read(Reports.class.getName())).getName().replace('/', '.'));
+            } finally {
+                source.close();
+            }
+        } finally {
+            boot.delete();
+            library.delete();
+            deflated.delete();
+        }
+    }
+
+    public void testParallelism() throws Exception {
+        final List<String> expected = toStrings(SCHEDULE.withParallelism(1).scan(classes()));
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(expected, toStrings(SCHEDULE.withParallelism(4).scan(classes())));
+        }
+    }
+
+    public void testLibraries() throws Exception {
+        // the annotation types are not in the jar, only in the libraries
+        final File jar = jar(Reports.class);
+
+        try {
+            final ClassFileResolver resolver = new ClassFileResolver(ClassSource.of(getClass().getClassLoader()));
+
+            final List<ScannedElement> found = SCHEDULE.scan(resolver, jar);
+            assertEquals(3, found.size());
+
+            // only what is declared directly
+            final List<ScannedElement> declared = SCHEDULE.withLibraries(ClassSource.of(new File[0])).scan(jar);
+            assertEquals(1, declared.size());
+            assertEquals(ScannedElement.Kind.PARAMETER, declared.get(0).getKind());
+        } finally {
+            jar.delete();
+        }
+    }
+
+    public void testMissingRoot() throws Exception {
+        try {
+            SCHEDULE.scan(new File(classes(), "no-such-directory"));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // pass
+        }
+    }
+
+    private static List<String> expected() {
+        final List<String> expected = new ArrayList<String>();
+
+        // meta-annotations are annotated too
+        expected.add(Daily.class.getName());
+        expected.add(Hourly.class.getName());
+
+        expected.add(Reports.class.getName());
+        expected.add(Reports.class.getName() + ".report()V");
+        expected.add(Reports.class.getName() + ".cleanup(Ljava/lang/String;)V[0]");
+        expected.add(Timers.class.getName() + ".timeout");
+
+        return expected;
+    }
+
+    private static List<String> toStrings(List<ScannedElement> elements) {
+        final List<String> strings = new ArrayList<String>();
+
+        for (ScannedElement element : elements) {
+            strings.add(element.toString());
+        }
+
+        return strings;
+    }
+
+    private static File classes() throws Exception {
+        return new File(MetatypeScannerTest.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    }
+
+    private static File jar(Class<?>... classes) throws IOException {
+        final File file = File.createTempFile("scanner", ".jar");
+
+        final JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (Class<?> clazz : classes) {
+                final String resource = clazz.getName().replace('.', '/') + ".class";
+
+                write(out, resource, bytes(clazz), false);
+            }
+        } finally {
+            out.close();
+        }
+
+        return file;
+    }
+
+    private static void write(JarOutputStream out, String name, byte[] bytes, boolean stored) throws IOException {
+        final ZipEntry entry = new ZipEntry(name);
+
+        if (stored) {
+            final CRC32 crc = new CRC32();
+            crc.update(bytes);
+
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(bytes.length);
+            entry.setCompressedSize(bytes.length);
+            entry.setCrc(crc.getValue());
+        }
+
+        out.putNextEntry(entry);
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    private static byte[] bytes(Class<?> clazz) throws IOException {
+        final InputStream in = clazz.getClassLoader().getResourceAsStream(Archive.resource(clazz.getName()));
+        try {
+            return ClassFile.readAll(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        return Archive.read(new FileInputStream(file), file.length());
+    }
+
+    @Target(value = {TYPE, METHOD, FIELD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Schedule {
+        String value();
+    }
+
+    @Metatype
+    @Schedule("0 0 * * *")
+    @Target(value = {TYPE, METHOD, FIELD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Daily {
+    }
+
+    @Metatype
+    @Schedule("0 * * * *")
+    @Target(value = {TYPE, METHOD, FIELD, PARAMETER})
+    @Retention(value = RUNTIME)
+    public static @interface Hourly {
+    }
+
+    @Hourly
+    public static class Reports {
+
+        @Daily
+        public void report() {
+        }
+
+        public void unscheduled() {
+        }
+
+        public void cleanup(@Schedule("0 0 1 * *") String when) {
+        }
+    }
+
+    public static class Timers {
+
+        @Daily
+        private Object timeout;
+    }
+
+    public static class Unscheduled {
+
+        @Deprecated
+        public void run() {
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.metatype.scan.ClassSource;
+import org.metatype.scan.MetatypeIndex;
+import org.metatype.scan.MetatypeScanner;
+
+/**
+ * Indexes the project's classes for the annotation types of interest and
+ * writes the index under META-INF of the classes directory, so that it is
+ * packaged into the artifact for {@link MetatypeIndex#discover} to find.
+ *
+ * <pre>
+ * &lt;plugin&gt;
+ *   &lt;groupId&gt;org.metatype&lt;/groupId&gt;
+ *   &lt;artifactId&gt;metatype-maven-plugin&lt;/artifactId&gt;
+ *   &lt;executions&gt;
+ *     &lt;execution&gt;
+ *       &lt;goals&gt;&lt;goal&gt;index&lt;/goal&gt;&lt;/goals&gt;
+ *       &lt;configuration&gt;
+ *         &lt;annotations&gt;
+ *           &lt;annotation&gt;javax.ejb.Schedule&lt;/annotation&gt;
+ *         &lt;/annotations&gt;
+ *       &lt;/configuration&gt;
+ *     &lt;/execution&gt;
+ *   &lt;/executions&gt;
+ * &lt;/plugin&gt;
+ * </pre>
+ *
+ * Annotation types are read from the classes first and then from the
+ * compile classpath.  Dependencies are not indexed themselves: at runtime
+ * an index only answers for the jar or directory it is found in, so each
+ * dependency carries its own index if it was built with this plugin.
+ *
+ * @author David Blevins
+ */
+@Mojo(name = "index", defaultPhase = LifecyclePhase.PROCESS_CLASSES, requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
+public class IndexMojo extends AbstractMojo {
+
+    /**
+     * The annotation types the index is for, by binary name
+     */
+    @Parameter(required = true)
+    private List<String> annotations;
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    private File classesDirectory;
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}/" + MetatypeIndex.RESOURCE, required = true)
+    private File outputFile;
+
+    @Parameter(defaultValue = "${project.compileClasspathElements}", readonly = true, required = true)
+    private List<String> classpathElements;
+
+    @Parameter(property = "metatype.skip", defaultValue = "false")
+    private boolean skip;
+
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("Skipping the metatype index");
+            return;
+        }
+
+        if (!classesDirectory.isDirectory()) {
+            getLog().info("No classes to index in " + classesDirectory);
+            return;
+        }
+
+        if (annotations == null || annotations.isEmpty()) throw new MojoExecutionException("No annotation types to index for");
+
+        try {
+            final ClassSource libraries = ClassSource.of(libraries());
+
+            try {
+                // the compile classpath, then the JDK from the bootstrap loader
+                final MetatypeScanner scanner = MetatypeScanner.interestedIn(annotations.toArray(new String[annotations.size()]))
+                        .withLibraries(ClassSource.of(libraries, ClassSource.of((ClassLoader) null)));
+
+                final MetatypeIndex index = scanner.index(outputFile, classesDirectory);
+
+                getLog().info("Indexed " + index.getElements().size() + " elements of " + index.getClassNames().size() + " classes to " + outputFile);
+            } finally {
+                libraries.close();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot index " + classesDirectory, e);
+        }
+    }
+
+    /**
+     * The directories and jars of the compile classpath, less the classes
+     * themselves
+     */
+    private File[] libraries() {
+        final List<File> libraries = new ArrayList<File>();
+
+        for (String element : classpathElements) {
+            final File file = new File(element);
+
+            if (file.exists() && !file.equals(classesDirectory)) libraries.add(file);
+        }
+
+        return libraries.toArray(new File[libraries.size()]);
+    }
+}
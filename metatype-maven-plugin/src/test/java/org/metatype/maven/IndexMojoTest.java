@@ -0,0 +1,202 @@
+/*
+ * Copyright 2011 David Blevins
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.metatype.maven;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import javax.annotation.Metatype;
+
+import org.metatype.scan.MetatypeIndex;
+import org.metatype.scan.ScannedElement;
+
+/**
+ * Runs the goal as the build would, over a classes directory with a
+ * dependency jar of its own, and reads back the index it writes
+ *
+ * @author David Blevins
+ */
+public class IndexMojoTest extends TestCase {
+
+    private File work;
+    private File classes;
+    private File dependency;
+    private File index;
+
+    @Override
+    protected void setUp() throws Exception {
+        work = File.createTempFile("index-mojo", "");
+        assertTrue(work.delete() && work.mkdirs());
+
+        classes = new File(work, "classes");
+        copy(Job.class, classes);
+
+        dependency = new File(work, "library.jar");
+        final JarOutputStream out = new JarOutputStream(new FileOutputStream(dependency));
+        try {
+            out.putNextEntry(new ZipEntry(resource(LibraryJob.class)));
+            out.write(bytes(LibraryJob.class));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+
+        index = new File(classes, MetatypeIndex.RESOURCE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(work);
+    }
+
+    public void testIndex() throws Exception {
+        mojo().execute();
+
+        final MetatypeIndex written = MetatypeIndex.open(index);
+
+        assertEquals(Arrays.asList(Schedule.class.getName()), Arrays.asList(written.getInterest().toArray()));
+
+        // only the classes, a dependency answers for itself
+        assertEquals(Arrays.asList(Job.class.getName()), written.getClassNames());
+
+        final List<ScannedElement> job = written.getElements(Job.class.getName());
+        assertEquals(2, job.size());
+        assertEquals(classes, job.get(0).getLocation());
+        assertEquals("0 0 * * *", written.getElementsAnnotatedWith(Daily.class.getName()).get(0).getAnnotation(Schedule.class.getName()).get().getValue("value"));
+
+        assertEquals(1, written.getElementsAnnotatedWith(Daily.class.getName()).size());
+        assertEquals(2, written.getElementsAnnotatedWith(Schedule.class.getName()).size());
+    }
+
+    public void testSkip() throws Exception {
+        final IndexMojo mojo = mojo();
+        set(mojo, "skip", true);
+        mojo.execute();
+
+        assertFalse(index.exists());
+    }
+
+    private IndexMojo mojo() throws Exception {
+        // the annotation types are only on the compile classpath
+        final String types = new File(Schedule.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+
+        final IndexMojo mojo = new IndexMojo();
+        set(mojo, "annotations", Arrays.asList(Schedule.class.getName()));
+        set(mojo, "classesDirectory", classes);
+        set(mojo, "outputFile", index);
+        set(mojo, "classpathElements", Arrays.asList(classes.getPath(), types, dependency.getPath()));
+        return mojo;
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        final Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static void copy(Class<?> clazz, File directory) throws IOException {
+        final File file = new File(directory, resource(clazz));
+        assertTrue(file.getParentFile().mkdirs());
+
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes(clazz));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String resource(Class<?> clazz) {
+        return clazz.getName().replace('.', '/') + ".class";
+    }
+
+    private static byte[] bytes(Class<?> clazz) throws IOException {
+        final InputStream in = clazz.getClassLoader().getResourceAsStream(resource(clazz));
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Schedule {
+        String value();
+    }
+
+    @Metatype
+    @Schedule("0 0 * * *")
+    @Target(value = {TYPE, METHOD})
+    @Retention(value = RUNTIME)
+    public static @interface Daily {
+    }
+
+    public static class Job {
+
+        @Daily
+        public void run() {
+        }
+
+        @Schedule("0 * * * *")
+        public void hourly() {
+        }
+
+        public void unscheduled() {
+        }
+    }
+
+    @Daily
+    public static class LibraryJob {
+    }
+}